@@ -4,256 +4,287 @@
  * AverageFollowers.java: The calculation of the average number of followers   
  *                                                                             
  * Input Data:  <user_id>[space]<follower_id>                                  
- * Output Data: <average number of followers>                                  
+ * Output Data: <average number of followers>, variance, min and max
 */
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.io.PrintStream;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.KeyValueTextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
-import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.util.GenericOptionsParser;
 
 
 /**
- * StageOne - Calculation of the number of followers
- * StageTwo - The calculation of the average number of followers
+ * One job: every reducer calculates the number of followers of its users
+ * and collects the statistics of them, the statistics of the reducers
+ * are merged by the driver
 */
 public class AverageFollowers {
+
+    // Number of users counted in the mapper before the flush (-D followers.inmapper.max.entries=1048576)
+    public static final String INMAPPER_MAX_ENTRIES = "followers.inmapper.max.entries";
  
-    public static class MyPair implements Writable {
-        
-        private IntWritable mFirst;
-        private IntWritable mSecond;
+    /**
+     * Statistics of the number of followers: number of users,
+     * sum, sum of squares, min and max of the number of followers
+    */
+    public static class FollowersStatistics implements Writable {
+
+        private long mCount;
+        private long mSum;
+        private double mSumSquares;
+        private long mMin;
+        private long mMax;
 
-        public MyPair() {
-            set(new IntWritable(), new IntWritable());
+        public FollowersStatistics() {
+            clear();
         }
 
-        public MyPair(int first, int second) {
-            set(new IntWritable(first), new IntWritable(second));
+        public void clear() {
+            mCount = 0;
+            mSum = 0;
+            mSumSquares = 0;
+            mMin = Long.MAX_VALUE;
+            mMax = Long.MIN_VALUE;
         }
 
-        public void set(IntWritable first, IntWritable second) {
-            this.mFirst = first;
-            this.mSecond = second;
+        // Adds one user
+        public void add(long numberFollowers) {
+            ++mCount;
+            mSum += numberFollowers;
+            mSumSquares += (double)numberFollowers * numberFollowers;
+            mMin = Math.min(mMin, numberFollowers);
+            mMax = Math.max(mMax, numberFollowers);
         }
 
-        public IntWritable getFirst() {
-            return mFirst;
+        public void merge(FollowersStatistics other) {
+            mCount += other.mCount;
+            mSum += other.mSum;
+            mSumSquares += other.mSumSquares;
+            mMin = Math.min(mMin, other.mMin);
+            mMax = Math.max(mMax, other.mMax);
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getSum() {
+            return mSum;
+        }
+
+        public long getMin() {
+            return mMin;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public double getMean() {
+            return (double)mSum / (double)mCount;
+        }
+
+        public double getVariance() {
+            double mean = getMean();
+            return Math.max(0.0, mSumSquares / mCount - mean * mean);
         }
 
-        public IntWritable getSecond() {
-            return mSecond;
-        }  
-    
         @Override
         public void write(DataOutput out) throws IOException {
-            mFirst.write(out);
-            mSecond.write(out);
-        } 
+            out.writeLong(mCount);
+            out.writeLong(mSum);
+            out.writeDouble(mSumSquares);
+            out.writeLong(mMin);
+            out.writeLong(mMax);
+        }
 
         @Override
         public void readFields(DataInput in) throws IOException {
-            mFirst.readFields(in);
-            mSecond.readFields(in);
+            mCount = in.readLong();
+            mSum = in.readLong();
+            mSumSquares = in.readDouble();
+            mMin = in.readLong();
+            mMax = in.readLong();
         }
     }
 
     /**
      * Input:  key - user_id; value - follower_id
-     * Output: key - user_id; value - const(1)
-    */ 
-    public static class MapperStageOne 
-            extends Mapper<Text, Text, IntWritable, IntWritable> {
+     * Output: key - user_id; value - local number of followers
+     *
+     * The followers are counted in the mapper, the counts are sent
+     * when the map is full and at the end of the split
+    */
+    public static class MapperStageOne
+            extends Mapper<IntWritable, IntWritable, IntWritable, IntWritable> {
 
-        private final static IntWritable ONE_CONST = new IntWritable(1);
+        private IntIntHashMap mCounts;
+        private int mMaxEntries;
         private IntWritable mUserId = new IntWritable();
-      
-        public void map(Text key, Text value, Context context) 
+        private IntWritable mNumberFollowers = new IntWritable();
+
+        @Override
+        protected void setup(Context context) {
+            mMaxEntries = context.getConfiguration().getInt(INMAPPER_MAX_ENTRIES, 1 << 20);
+            mCounts = new IntIntHashMap(Math.min(mMaxEntries, 1 << 16));
+        }
+
+        public void map(IntWritable key, IntWritable value, Context context)
                 throws IOException, InterruptedException {
 
-            mUserId.set(Integer.parseInt(key.toString()));
-            context.write(mUserId, ONE_CONST);
+            mCounts.addTo(key.get(), 1);
+            if (mCounts.size() >= mMaxEntries) {
+                flush(context);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            flush(context);
+        }
+
+        private void flush(Context context) throws IOException, InterruptedException {
+            IntIntHashMap.Cursor c = mCounts.cursor();
+            while (c.next()) {
+                mUserId.set(c.key());
+                mNumberFollowers.set(c.value());
+                context.write(mUserId, mNumberFollowers);
+            }
+            mCounts.clear();
         }
     }
     
     /**
-     * Input:  key - user_id; value - list of the number of followers
-     * Output: key - user_id; value - total number of followers the user
+     * Input:  key - user_id; value - list of the local number of followers
+     * Output: key - user_id; value - local number of followers
     */
-    public static class ReducerStageOne
+    public static class CombinerStatistics
             extends Reducer<IntWritable, IntWritable, IntWritable, IntWritable> {
-        
+
         private IntWritable mNumberFollowers = new IntWritable();
 
-        public void reduce(IntWritable key, Iterable<IntWritable> values, Context context) 
+        public void reduce(IntWritable key, Iterable<IntWritable> values, Context context)
                 throws IOException, InterruptedException {
-     
+
             int sum = 0;
-            
             for (IntWritable val : values) {
                 sum += val.get();
-            }            
+            }
             mNumberFollowers.set(sum);
             context.write(key, mNumberFollowers);
         }
     }
 
     /**
-     * Input:  key - user_id; value - number of followers
-     * Output: key - const(1); value - pair(number of followers, const(1))
-    */  
-    public static class MapperStageTwo 
-            extends Mapper<Text, Text, IntWritable, MyPair> {
-
-        private final static IntWritable ONE_CONST = new IntWritable(1);
-        private IntWritable mNumberFollowers = new IntWritable();
-        private MyPair mAvgPair = new MyPair();
-      
-        public void map(Text key, Text value, Context context) throws IOException, InterruptedException {
-
-            mNumberFollowers.set(Integer.parseInt(value.toString()));
-            mAvgPair.set(mNumberFollowers, ONE_CONST);
-
-            context.write(ONE_CONST, mAvgPair);
-        }
-    }
-  
-    /**
-     * Input:  key - const(1); value - list of the pair(number of followers, count users)
-     * Output: key - const(1); value - pair(number of followers, count users)
+     * Input:  key - user_id; value - list of the local number of followers
+     * Output: (at the end) key - nothing; value - statistics of the users of the reducer
     */
-    public static class CombinerStageTwo 
-            extends Reducer<IntWritable, MyPair, IntWritable, MyPair> {
-    
-        private final static IntWritable ONE_CONST = new IntWritable(1);
-        private IntWritable mNumberFollowers = new IntWritable();
-        private IntWritable mCountUsers = new IntWritable();
-        private MyPair mAvgPair = new MyPair();
-
-        public void reduce(IntWritable key, Iterable<MyPair> values, Context context) 
-                throws IOException, InterruptedException {
-            
-            int sum = 0;
-            int cnt = 0;
+    public static class ReducerStatistics
+            extends Reducer<IntWritable, IntWritable, NullWritable, FollowersStatistics> {
 
-            for (MyPair val : values) {
-                sum += val.getFirst().get();
-                cnt += val.getSecond().get();
-            }
-
-            mNumberFollowers.set(sum);
-            mCountUsers.set(cnt);
-            mAvgPair.set(mNumberFollowers, mCountUsers);
-            
-            context.write(ONE_CONST, mAvgPair);
-        }
-    }
-    
-    /**
-     * Input:  key - const(1); value - list of the pair(number of followers, count users)
-     * Output: key - "Average followers: "; value - average number of followers
-    */
-    public static class ReducerStageTwo
-            extends Reducer<IntWritable, MyPair, Text, DoubleWritable> {
+        private FollowersStatistics mStatistics = new FollowersStatistics();
 
-        public void reduce(IntWritable key, Iterable<MyPair> values, Context context) 
+        public void reduce(IntWritable key, Iterable<IntWritable> values, Context context)
                 throws IOException, InterruptedException {
-      
-            int sum = 0;
-            int cnt = 0;
 
-            for (MyPair val : values) {
-                sum += val.getFirst().get();
-                cnt += val.getSecond().get();
+            long sum = 0;
+            for (IntWritable val : values) {
+                sum += val.get();
             }
-            double avg = (double)sum / (double)cnt;
+            mStatistics.add(sum);
+        }
 
-            context.write(new Text("Average followers: "), new DoubleWritable(avg));
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            context.write(NullWritable.get(), mStatistics);
         }
     }
-      
+
     public static void main(String[] args) throws Exception {
         
-        Configuration confStageOne = new Configuration();
-        Configuration confStageTwo = new Configuration();
+        Configuration conf = new Configuration();
     
-        String[] otherArgs = new GenericOptionsParser(confStageOne, args).getRemainingArgs();
-            if (otherArgs.length != 2) {
-                System.err.println("Usage: top50 <in> <out>");
-                System.exit(2);
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length != 2) {
+            System.err.println("Usage: averagefollowers <in> <out>");
+            System.exit(2);
         }
 
-        // Delimiter read - space, for the first job
-        confStageOne.set("mapreduce.input.keyvaluelinerecordreader.key.value.separator", " ");
+        Job job = new Job(conf, "averagefollowers");
 
-         // Create the two jobs
-        Job jobStageOne = new Job(confStageOne, "averagefollowers");
-        Job jobStageTwo = new Job(confStageTwo, "averagefollowers");
-        
-        // Set number of reduce tasks for the second job
-        jobStageTwo.setNumReduceTasks(1);
-        
         // Set class 
-        jobStageOne.setJarByClass(AverageFollowers.class);
-        jobStageTwo.setJarByClass(AverageFollowers.class);
-
-        // Set mapper and reducer: first job
-        jobStageOne.setMapperClass(MapperStageOne.class);
-        jobStageOne.setCombinerClass(ReducerStageOne.class);
-        jobStageOne.setReducerClass(ReducerStageOne.class);
-
-        // Set mapper and reducer: second job
-        jobStageTwo.setMapperClass(MapperStageTwo.class);
-        jobStageTwo.setCombinerClass(CombinerStageTwo.class);
-        jobStageTwo.setReducerClass(ReducerStageTwo.class);
-    
+        job.setJarByClass(AverageFollowers.class);
+
+        job.setMapperClass(MapperStageOne.class);
+        job.setCombinerClass(CombinerStatistics.class);
+        job.setReducerClass(ReducerStatistics.class);
+
         // Input/Output
-        jobStageOne.setInputFormatClass(KeyValueTextInputFormat.class);
-        jobStageOne.setOutputFormatClass(TextOutputFormat.class);
-    
-        jobStageTwo.setInputFormatClass(KeyValueTextInputFormat.class);
-        jobStageTwo.setOutputFormatClass(TextOutputFormat.class);
-        
-        jobStageOne.setOutputKeyClass(IntWritable.class);
-        jobStageOne.setOutputValueClass(IntWritable.class);
-    
-        jobStageTwo.setMapOutputKeyClass(IntWritable.class);
-        jobStageTwo.setMapOutputValueClass(MyPair.class);
-    
-        // Create a temporary directory for the intermediate result
-        FileInputFormat.addInputPath(jobStageOne, new Path(otherArgs[0]));
-        FileOutputFormat.setOutputPath(jobStageOne, new Path("./tmp_avg"));
-    
-        FileInputFormat.addInputPath(jobStageTwo, new Path("./tmp_avg"));
-        FileOutputFormat.setOutputPath(jobStageTwo, new Path(otherArgs[1]));
-    
-        if (jobStageOne.waitForCompletion(true)) {
-            boolean status = jobStageTwo.waitForCompletion(true);
-            // Delete the temporary directory
-            FileSystem fs = FileSystem.get(new Configuration());
-            fs.delete(new Path("./tmp_avg"), true);
-      
-            if (status) {
-                System.exit(0);
-            } else {
-                System.exit(1);
-            }
-        } else {
+        job.setInputFormatClass(EdgeInputFormat.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+        job.setMapOutputKeyClass(IntWritable.class);
+        job.setMapOutputValueClass(IntWritable.class);
+
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(FollowersStatistics.class);
+
+        // Statistics of the reducers are written to the temporary directory
+        Path tmpPath = new Path(otherArgs[1] + "_tmp");
+        Path outPath = new Path(otherArgs[1]);
+
+        FileInputFormat.addInputPath(job, new Path(otherArgs[0]));
+        FileOutputFormat.setOutputPath(job, tmpPath);
+
+        if (!job.waitForCompletion(true)) {
             System.exit(1);
         }
+
+        // Merge the statistics of the reducers
+        FileSystem fs = tmpPath.getFileSystem(conf);
+        FollowersStatistics total = new FollowersStatistics();
+        FollowersStatistics statistics = new FollowersStatistics();
+
+        for (FileStatus status : fs.globStatus(new Path(tmpPath, "part-r-*"))) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(status.getPath()));
+            try {
+                while (reader.next(NullWritable.get(), statistics)) {
+                    total.merge(statistics);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        fs.delete(tmpPath, true);
+
+        PrintStream out = new PrintStream(fs.create(new Path(outPath, "part-00000")), false, "UTF-8");
+        try {
+            if (total.getCount() != 0) {
+                out.println("Average followers: \t" + total.getMean());
+                out.println("Variance: \t" + total.getVariance());
+                out.println("Min followers: \t" + total.getMin());
+                out.println("Max followers: \t" + total.getMax());
+            }
+            out.println("Users: \t" + total.getCount());
+            out.println("Followers: \t" + total.getSum());
+        } finally {
+            out.close();
+        }
+        System.exit(0);
     }
-}
\ No newline at end of file
+}
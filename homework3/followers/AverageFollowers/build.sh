@@ -5,6 +5,6 @@
 #javac -classpath $JARS -d classes WordCount.java
 #jar -cvf wordcount.jar -C classes .
 
-javac -classpath `hadoop classpath` AverageFollowers.java 
+javac -classpath `hadoop classpath` -d . AverageFollowers.java ../common/EdgeInputFormat.java ../common/IntIntHashMap.java 
 jar -cvf averagefollowers.jar .
 
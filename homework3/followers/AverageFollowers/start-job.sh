@@ -1,3 +1,3 @@
 #!/bin/sh
 
-hadoop jar ./averagefollowers.jar AverageFollowers -D mapred.reduce.tasks=1 /pub/followers.db ./followers/output  
+hadoop jar ./averagefollowers.jar AverageFollowers /pub/followers.db ./followers/output  
@@ -5,6 +5,10 @@
  *                                                                                       
  * Input Data:  <user_id>[space]<follower_id>                                            
  * Output Data: <number of followers>[Tab]<frequency>                                    
+ *
+ * Output Data (-D followers.distribution.mode=histogram):
+ *              p50, p90, p99, p999, min, max[Tab]<number of followers>
+ *              <min number of followers>-<max number of followers>[Tab]<frequency>
 */
 
 import java.io.IOException;
@@ -12,11 +16,16 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.KeyValueTextInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
@@ -25,24 +34,68 @@ import org.apache.hadoop.util.GenericOptionsParser;
 /**
  * StageOne - Calculation of the number of followers
  * StageTwo - Calculation of the distribution of the number followers 
+ *            exact     - one row for every number of followers
+ *            histogram - percentiles and logarithmic buckets from the
+ *                        histograms of the splits (relative error of the
+ *                        percentiles is -D followers.histogram.accuracy)
 */
 public class DistributionFollowers {
 
+    // Intermediate result as a block-compressed SequenceFile (-D followers.intermediate.binary=true)
+    public static final String INTERMEDIATE_BINARY = "followers.intermediate.binary";
+
+    // Number of users counted in the mapper before the flush (-D followers.inmapper.max.entries=1048576)
+    public static final String INMAPPER_MAX_ENTRIES = "followers.inmapper.max.entries";
+
+    // Algorithm of the second stage (-D followers.distribution.mode=exact|histogram)
+    public static final String DISTRIBUTION_MODE = "followers.distribution.mode";
+
+    // Relative error of the percentiles of the histogram (-D followers.histogram.accuracy=0.01)
+    public static final String HISTOGRAM_ACCURACY = "followers.histogram.accuracy";
+
     /**
      * Input:  key - user_id; value - follower_id
-     * Output: key - user_id; value - const(1)
-    */ 
+     * Output: key - user_id; value - local number of followers
+     *
+     * The followers are counted in the mapper, the counts are sent
+     * when the map is full and at the end of the split
+    */
     public static class MapperStageOne
-            extends Mapper<Text, Text, IntWritable, IntWritable> {
+            extends Mapper<IntWritable, IntWritable, IntWritable, IntWritable> {
 
-        private final static IntWritable ONE_CONST = new IntWritable(1);
+        private IntIntHashMap mCounts;
+        private int mMaxEntries;
         private IntWritable mUserId = new IntWritable();
-      
-        public void map(Text key, Text value, Context context) 
+        private IntWritable mNumberFollowers = new IntWritable();
+
+        @Override
+        protected void setup(Context context) {
+            mMaxEntries = context.getConfiguration().getInt(INMAPPER_MAX_ENTRIES, 1 << 20);
+            mCounts = new IntIntHashMap(Math.min(mMaxEntries, 1 << 16));
+        }
+
+        public void map(IntWritable key, IntWritable value, Context context)
                 throws IOException, InterruptedException {
 
-            mUserId.set(Integer.parseInt(key.toString()));
-            context.write(mUserId, ONE_CONST);
+            mCounts.addTo(key.get(), 1);
+            if (mCounts.size() >= mMaxEntries) {
+                flush(context);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            flush(context);
+        }
+
+        private void flush(Context context) throws IOException, InterruptedException {
+            IntIntHashMap.Cursor c = mCounts.cursor();
+            while (c.next()) {
+                mUserId.set(c.key());
+                mNumberFollowers.set(c.value());
+                context.write(mUserId, mNumberFollowers);
+            }
+            mCounts.clear();
         }
     }
     
@@ -84,7 +137,23 @@ public class DistributionFollowers {
             context.write(mNumberFollowers, ONE_CONST);
         }
     }
-    
+
+    /**
+     * The same as MapperStageTwo for the binary intermediate result
+     * Input:  key - user_id; value - number of followers
+     * Output: key - number of followers; value - const(1)
+    */
+    public static class MapperStageTwoBinary
+            extends Mapper<IntWritable, IntWritable, IntWritable, IntWritable> {
+
+        private final static IntWritable ONE_CONST = new IntWritable(1);
+
+        public void map(IntWritable key, IntWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            context.write(value, ONE_CONST);
+        }
+    }
     
     /**
      * Input:  key - number of followers; value - list with a frequency of the number of followers
@@ -107,6 +176,117 @@ public class DistributionFollowers {
         }
     }
 
+    /**
+     * Input:  key - user_id; value - number of followers
+     * Output: key - nothing; value - histogram of the number of followers of the split
+    */
+    public static class MapperStageTwoHistogram
+            extends Mapper<Text, Text, NullWritable, LogHistogram> {
+
+        private LogHistogram mHistogram;
+
+        @Override
+        protected void setup(Context context) {
+            mHistogram = new LogHistogram(context.getConfiguration().getFloat(HISTOGRAM_ACCURACY, 0.01F));
+        }
+
+        public void map(Text key, Text value, Context context)
+                throws IOException, InterruptedException {
+
+            mHistogram.add(Integer.parseInt(value.toString()), 1);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            context.write(NullWritable.get(), mHistogram);
+        }
+    }
+
+    /**
+     * The same as MapperStageTwoHistogram for the binary intermediate result
+     * Input:  key - user_id; value - number of followers
+     * Output: key - nothing; value - histogram of the number of followers of the split
+    */
+    public static class MapperStageTwoHistogramBinary
+            extends Mapper<IntWritable, IntWritable, NullWritable, LogHistogram> {
+
+        private LogHistogram mHistogram;
+
+        @Override
+        protected void setup(Context context) {
+            mHistogram = new LogHistogram(context.getConfiguration().getFloat(HISTOGRAM_ACCURACY, 0.01F));
+        }
+
+        public void map(IntWritable key, IntWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            mHistogram.add(value.get(), 1);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            context.write(NullWritable.get(), mHistogram);
+        }
+    }
+
+    /**
+     * Input:  key - nothing; value - list of the histograms of the splits
+     * Output: key - name of the percentile; value - number of followers
+     *         key - range of the bucket; value - frequency
+    */
+    public static class ReducerStageTwoHistogram
+            extends Reducer<NullWritable, LogHistogram, Text, LongWritable> {
+
+        private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+        private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+        private LogHistogram mHistogram;
+        private Text mName = new Text();
+        private LongWritable mValue = new LongWritable();
+
+        @Override
+        protected void setup(Context context) {
+            mHistogram = new LogHistogram(context.getConfiguration().getFloat(HISTOGRAM_ACCURACY, 0.01F));
+        }
+
+        public void reduce(NullWritable key, Iterable<LogHistogram> values, Context context)
+                throws IOException, InterruptedException {
+
+            for (LogHistogram val : values) {
+                mHistogram.merge(val);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            if (mHistogram.getTotal() == 0) {
+                return;
+            }
+            for (int i = 0; i < PERCENTILES.length; ++i) {
+                write(context, PERCENTILE_NAMES[i], mHistogram.quantile(PERCENTILES[i]));
+            }
+            write(context, "min", mHistogram.getMin());
+            write(context, "max", mHistogram.getMax());
+
+            if (mHistogram.getZeroCount() != 0) {
+                write(context, "0", mHistogram.getZeroCount());
+            }
+            for (int i = 0; i < mHistogram.getNumberBuckets(); ++i) {
+                if (mHistogram.getBucketCount(i) != 0) {
+                    write(context, mHistogram.getBucketLower(i) + "-" + mHistogram.getBucketUpper(i),
+                          mHistogram.getBucketCount(i));
+                }
+            }
+        }
+
+        private void write(Context context, String name, long value)
+                throws IOException, InterruptedException {
+            mName.set(name);
+            mValue.set(value);
+            context.write(mName, mValue);
+        }
+    }
+
     public static void main(String[] args) throws Exception {
 
         Configuration confStageOne = new Configuration();
@@ -114,14 +294,15 @@ public class DistributionFollowers {
 
         String[] otherArgs = new GenericOptionsParser(confStageOne, args).getRemainingArgs();
 
-        if (otherArgs.length != 2) {
-            System.err.println("Usage: top50 <in> <out>");
+        String mode = confStageOne.get(DISTRIBUTION_MODE, "exact");
+        if (otherArgs.length != 2 || !(mode.equals("exact") || mode.equals("histogram"))) {
+            System.err.println("Usage: distributionfollowers [-D " + DISTRIBUTION_MODE
+                               + "=exact|histogram] <in> <out>");
             System.exit(2);
         }
-    
-        // Delimiter read - space, for the first job
-        confStageOne.set("mapreduce.input.keyvaluelinerecordreader.key.value.separator", " ");
-        
+        boolean histogramMode = mode.equals("histogram");
+        confStageTwo.setFloat(HISTOGRAM_ACCURACY, confStageOne.getFloat(HISTOGRAM_ACCURACY, 0.01F));
+
         // Create the two jobs
         Job jobStageOne = new Job(confStageOne, "distrubutionfollowers");
         Job jobStageTwo = new Job(confStageTwo, "distrubutionfollowers");
@@ -139,22 +320,46 @@ public class DistributionFollowers {
         jobStageOne.setReducerClass(ReducerStageOne.class);
 
         // Set mapper and reducer: second job
-        jobStageTwo.setMapperClass(MapperStageTwo.class);
-        jobStageTwo.setCombinerClass(ReducerStageTwo.class);
-        jobStageTwo.setReducerClass(ReducerStageTwo.class);
+        if (histogramMode) {
+            jobStageTwo.setMapperClass(MapperStageTwoHistogram.class);
+            jobStageTwo.setReducerClass(ReducerStageTwoHistogram.class);
+        } else {
+            jobStageTwo.setMapperClass(MapperStageTwo.class);
+            jobStageTwo.setCombinerClass(ReducerStageTwo.class);
+            jobStageTwo.setReducerClass(ReducerStageTwo.class);
+        }
     
         // Input/Output
-        jobStageOne.setInputFormatClass(KeyValueTextInputFormat.class);
-        jobStageOne.setOutputFormatClass(TextOutputFormat.class);
-    
-        jobStageTwo.setInputFormatClass(KeyValueTextInputFormat.class);
+        jobStageOne.setInputFormatClass(EdgeInputFormat.class);
+
+        if (confStageOne.getBoolean(INTERMEDIATE_BINARY, false)) {
+            // user_id -> number of followers without text formatting and parsing
+            jobStageOne.setOutputFormatClass(SequenceFileOutputFormat.class);
+            SequenceFileOutputFormat.setCompressOutput(jobStageOne, true);
+            SequenceFileOutputFormat.setOutputCompressionType(jobStageOne, CompressionType.BLOCK);
+
+            jobStageTwo.setInputFormatClass(SequenceFileInputFormat.class);
+            jobStageTwo.setMapperClass(histogramMode ? MapperStageTwoHistogramBinary.class
+                                                     : MapperStageTwoBinary.class);
+        } else {
+            jobStageOne.setOutputFormatClass(TextOutputFormat.class);
+
+            jobStageTwo.setInputFormatClass(KeyValueTextInputFormat.class);
+        }
         jobStageTwo.setOutputFormatClass(TextOutputFormat.class);
         
         jobStageOne.setOutputKeyClass(IntWritable.class);
         jobStageOne.setOutputValueClass(IntWritable.class);
     
-        jobStageTwo.setOutputKeyClass(IntWritable.class);
-        jobStageTwo.setOutputValueClass(IntWritable.class);
+        if (histogramMode) {
+            jobStageTwo.setMapOutputKeyClass(NullWritable.class);
+            jobStageTwo.setMapOutputValueClass(LogHistogram.class);
+            jobStageTwo.setOutputKeyClass(Text.class);
+            jobStageTwo.setOutputValueClass(LongWritable.class);
+        } else {
+            jobStageTwo.setOutputKeyClass(IntWritable.class);
+            jobStageTwo.setOutputValueClass(IntWritable.class);
+        }
     
         // Create a temporary directory for the intermediate result
         FileInputFormat.addInputPath(jobStageOne, new Path(otherArgs[0]));
@@ -5,6 +5,6 @@
 #javac -classpath $JARS -d classes WordCount.java
 #jar -cvf wordcount.jar -C classes .
 
-javac -classpath `hadoop classpath` DistributionFollowers.java 
+javac -classpath `hadoop classpath` -d . DistributionFollowers.java ../common/EdgeInputFormat.java ../common/IntIntHashMap.java ../common/LogHistogram.java 
 jar -cvf distributionfollowers.jar .
 
@@ -1,3 +1,3 @@
 #!/bin/sh
 
-hadoop jar ./distributionfollowers.jar DistributionFollowers -D mapred.reduce.tasks=1 /pub/followers.db ./followers/output  
+hadoop jar ./distributionfollowers.jar DistributionFollowers -D mapred.reduce.tasks=1 -D followers.intermediate.binary=true /pub/followers.db ./followers/output  
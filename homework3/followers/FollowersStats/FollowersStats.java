@@ -0,0 +1,306 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * FollowersStats.java: Top users, average and distribution of the number of
+ *                      followers by a single scan of the followers database
+ *
+ * Input Data:  <user_id>[space]<follower_id>
+ * Output Data: top-r-*          <user_id>[Tab]<number of followers>
+ *              average-r-*      <average number of followers>
+ *              distribution-r-* <number of followers>[Tab]<frequency>
+*/
+
+import java.io.IOException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.KeyValueTextInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * StageOne - Calculation of the number of followers (the only pass over the raw data)
+ * StageTwo - Top N users, average and distribution of the number of followers
+ *            from the result of the first stage
+*/
+public class FollowersStats {
+
+    // Number of users in the top (-D followers.top.n=50)
+    public static final String TOP_N = "followers.top.n";
+
+    // Intermediate result as a block-compressed SequenceFile (-D followers.intermediate.binary=true)
+    public static final String INTERMEDIATE_BINARY = "followers.intermediate.binary";
+
+    // Number of users counted in the mapper before the flush (-D followers.inmapper.max.entries=1048576)
+    public static final String INMAPPER_MAX_ENTRIES = "followers.inmapper.max.entries";
+
+    // Named outputs of the second stage
+    public static final String TOP_OUTPUT = "top";
+    public static final String AVERAGE_OUTPUT = "average";
+    public static final String DISTRIBUTION_OUTPUT = "distribution";
+
+    /**
+     * Input:  key - user_id; value - follower_id
+     * Output: key - user_id; value - local number of followers
+     *
+     * The followers are counted in the mapper, the counts are sent
+     * when the map is full and at the end of the split
+    */
+    public static class MapperStageOne
+            extends Mapper<IntWritable, IntWritable, IntWritable, IntWritable> {
+
+        private IntIntHashMap mCounts;
+        private int mMaxEntries;
+        private IntWritable mUserId = new IntWritable();
+        private IntWritable mNumberFollowers = new IntWritable();
+
+        @Override
+        protected void setup(Context context) {
+            mMaxEntries = context.getConfiguration().getInt(INMAPPER_MAX_ENTRIES, 1 << 20);
+            mCounts = new IntIntHashMap(Math.min(mMaxEntries, 1 << 16));
+        }
+
+        public void map(IntWritable key, IntWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            mCounts.addTo(key.get(), 1);
+            if (mCounts.size() >= mMaxEntries) {
+                flush(context);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            flush(context);
+        }
+
+        private void flush(Context context) throws IOException, InterruptedException {
+            IntIntHashMap.Cursor c = mCounts.cursor();
+            while (c.next()) {
+                mUserId.set(c.key());
+                mNumberFollowers.set(c.value());
+                context.write(mUserId, mNumberFollowers);
+            }
+            mCounts.clear();
+        }
+    }
+
+    /**
+     * Input:  key - user_id; value - list of the number of followers
+     * Output: key - user_id; value - total number of followers the user
+    */
+    public static class ReducerStageOne
+            extends Reducer<IntWritable, IntWritable, IntWritable, IntWritable> {
+
+        private IntWritable mNumberFollowers = new IntWritable();
+
+        public void reduce(IntWritable key, Iterable<IntWritable> values, Context context)
+                throws IOException, InterruptedException {
+
+            int sum = 0;
+            for (IntWritable val : values) {
+                sum += val.get();
+            }
+            mNumberFollowers.set(sum);
+            context.write(key, mNumberFollowers);
+        }
+    }
+
+    /**
+     * Input:  key - user_id; value - number of followers
+     * Output: key - number of followers with a minus; value - user_id
+    */
+    public static class MapperStageTwo
+            extends Mapper<Text, Text, IntWritable, IntWritable> {
+
+        private IntWritable mUserId = new IntWritable();
+        private IntWritable mNumberFollowers = new IntWritable();
+
+        public void map(Text key, Text value, Context context)
+                throws IOException, InterruptedException {
+
+            mUserId.set(Integer.parseInt(key.toString()));
+            // With a minus - for sort by descending
+            mNumberFollowers.set(-Integer.parseInt(value.toString()));
+
+            context.write(mNumberFollowers, mUserId);
+        }
+    }
+
+    /**
+     * The same as MapperStageTwo for the binary intermediate result
+     * Input:  key - user_id; value - number of followers
+     * Output: key - number of followers with a minus; value - user_id
+    */
+    public static class MapperStageTwoBinary
+            extends Mapper<IntWritable, IntWritable, IntWritable, IntWritable> {
+
+        private IntWritable mNumberFollowers = new IntWritable();
+
+        public void map(IntWritable key, IntWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            // With a minus - for sort by descending
+            mNumberFollowers.set(-value.get());
+
+            context.write(mNumberFollowers, key);
+        }
+    }
+
+    /**
+     * Input:  key - number of followers with a minus; value - list of user_id
+     * Output: top          - key - user_id; value - number of followers (first N users)
+     *         distribution - key - number of followers; value - frequency (by descending)
+     *         average      - key - "Average followers: "; value - average number of followers
+    */
+    public static class ReducerStageTwo
+            extends Reducer<IntWritable, IntWritable, IntWritable, IntWritable> {
+
+        private MultipleOutputs<IntWritable, IntWritable> mOutputs;
+        private IntWritable mNumberFollowers = new IntWritable();
+        private IntWritable mFrequency = new IntWritable();
+        private int mTopN;
+        private int mStop = 0;
+        private long mTotalFollowers = 0;
+        private long mTotalUsers = 0;
+
+        @Override
+        protected void setup(Context context) {
+            mOutputs = new MultipleOutputs<IntWritable, IntWritable>(context);
+            mTopN = context.getConfiguration().getInt(TOP_N, 50);
+        }
+
+        public void reduce(IntWritable key, Iterable<IntWritable> values, Context context)
+                throws IOException, InterruptedException {
+
+            // Remove minus
+            int numberFollowers = -key.get();
+            int frequency = 0;
+
+            mNumberFollowers.set(numberFollowers);
+            for (IntWritable val : values) {
+                if (mStop < mTopN) {
+                    mOutputs.write(TOP_OUTPUT, val, mNumberFollowers);
+                    ++mStop;
+                }
+                ++frequency;
+            }
+            mFrequency.set(frequency);
+            mOutputs.write(DISTRIBUTION_OUTPUT, mNumberFollowers, mFrequency);
+
+            mTotalFollowers += (long)numberFollowers * frequency;
+            mTotalUsers += frequency;
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            if (mTotalUsers != 0) {
+                double avg = (double)mTotalFollowers / (double)mTotalUsers;
+                mOutputs.write(AVERAGE_OUTPUT, new Text("Average followers: "), new DoubleWritable(avg));
+            }
+            mOutputs.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Configuration confStageOne = new Configuration();
+
+        String[] otherArgs = new GenericOptionsParser(confStageOne, args).getRemainingArgs();
+
+        if (otherArgs.length != 2) {
+            System.err.println("Usage: followersstats <in> <out>");
+            System.exit(2);
+        }
+        Configuration confStageTwo = new Configuration(confStageOne);
+
+        // Create the two jobs
+        Job jobStageOne = new Job(confStageOne, "followersstats");
+        Job jobStageTwo = new Job(confStageTwo, "followersstats");
+
+        // Set number of reduce tasks for the second job
+        jobStageTwo.setNumReduceTasks(1);
+
+        // Set class
+        jobStageOne.setJarByClass(FollowersStats.class);
+        jobStageTwo.setJarByClass(FollowersStats.class);
+
+        // Set mapper and reducer: first job
+        jobStageOne.setMapperClass(MapperStageOne.class);
+        jobStageOne.setCombinerClass(ReducerStageOne.class);
+        jobStageOne.setReducerClass(ReducerStageOne.class);
+
+        // Set reducer: second job (without combiner - the user ids are needed for the top)
+        jobStageTwo.setReducerClass(ReducerStageTwo.class);
+
+        // Input/Output
+        jobStageOne.setInputFormatClass(EdgeInputFormat.class);
+
+        if (confStageOne.getBoolean(INTERMEDIATE_BINARY, false)) {
+            // user_id -> number of followers without text formatting and parsing
+            jobStageOne.setOutputFormatClass(SequenceFileOutputFormat.class);
+            SequenceFileOutputFormat.setCompressOutput(jobStageOne, true);
+            SequenceFileOutputFormat.setOutputCompressionType(jobStageOne, CompressionType.BLOCK);
+
+            jobStageTwo.setInputFormatClass(SequenceFileInputFormat.class);
+            jobStageTwo.setMapperClass(MapperStageTwoBinary.class);
+        } else {
+            jobStageOne.setOutputFormatClass(TextOutputFormat.class);
+
+            jobStageTwo.setInputFormatClass(KeyValueTextInputFormat.class);
+            jobStageTwo.setMapperClass(MapperStageTwo.class);
+        }
+
+        // All the results are written through the named outputs
+        LazyOutputFormat.setOutputFormatClass(jobStageTwo, TextOutputFormat.class);
+        MultipleOutputs.addNamedOutput(jobStageTwo, TOP_OUTPUT, TextOutputFormat.class,
+                                       IntWritable.class, IntWritable.class);
+        MultipleOutputs.addNamedOutput(jobStageTwo, DISTRIBUTION_OUTPUT, TextOutputFormat.class,
+                                       IntWritable.class, IntWritable.class);
+        MultipleOutputs.addNamedOutput(jobStageTwo, AVERAGE_OUTPUT, TextOutputFormat.class,
+                                       Text.class, DoubleWritable.class);
+
+        jobStageOne.setOutputKeyClass(IntWritable.class);
+        jobStageOne.setOutputValueClass(IntWritable.class);
+
+        jobStageTwo.setOutputKeyClass(IntWritable.class);
+        jobStageTwo.setOutputValueClass(IntWritable.class);
+
+        // Temporary directory for the intermediate result, next to the output directory
+        Path tmpPath = new Path(otherArgs[1] + "_tmp");
+
+        FileInputFormat.addInputPath(jobStageOne, new Path(otherArgs[0]));
+        FileOutputFormat.setOutputPath(jobStageOne, tmpPath);
+
+        FileInputFormat.addInputPath(jobStageTwo, tmpPath);
+        FileOutputFormat.setOutputPath(jobStageTwo, new Path(otherArgs[1]));
+
+        if (jobStageOne.waitForCompletion(true)) {
+            boolean status = jobStageTwo.waitForCompletion(true);
+            // Delete the temporary directory
+            FileSystem fs = tmpPath.getFileSystem(confStageTwo);
+            fs.delete(tmpPath, true);
+
+            if (status) {
+                System.exit(0);
+            } else {
+                System.exit(1);
+            }
+        } else {
+            System.exit(1);
+        }
+    }
+}
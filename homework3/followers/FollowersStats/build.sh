@@ -0,0 +1,5 @@
+#!/bin/sh
+
+javac -classpath `hadoop classpath` -d . FollowersStats.java ../common/EdgeInputFormat.java ../common/IntIntHashMap.java 
+jar -cvf followersstats.jar .
+
@@ -0,0 +1,3 @@
+#!/bin/sh
+
+ rm *.jar *.class
\ No newline at end of file
@@ -0,0 +1,6 @@
+#!/bin/sh
+
+ hdfs dfs -cat ./followers/output/top-r* > ./top_result.txt
+ hdfs dfs -cat ./followers/output/average-r* > ./average_followers_result.txt
+ hdfs dfs -cat ./followers/output/distribution-r* > ./distribution_followers_result.txt
+ hdfs dfs -rm -r ./followers/output
\ No newline at end of file
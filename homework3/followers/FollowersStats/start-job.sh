@@ -0,0 +1,3 @@
+#!/bin/sh
+
+hadoop jar ./followersstats.jar FollowersStats -D followers.top.n=50 -D followers.intermediate.binary=true /pub/followers.db ./followers/output  
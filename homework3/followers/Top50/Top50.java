@@ -2,6 +2,10 @@
  * Samoylov Denis: pdc_shad 2015                                          
  *                                                                        
  * Top50.java: Determination the top 50 users by the number of followers  
+ *             (the size of the top is set by -D followers.top.n)
+ *
+ * Output Data (-D followers.top.mode=sketch):
+ *             <user_id>[Tab]<estimated number of followers>[Tab]<max overestimation>
  *                                                                        
  * Input Data:  <user_id>[space]<follower_id>                             
  * Output Data: <user_id>[Tab]<number of followers>                       
@@ -13,37 +17,89 @@ import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.KeyValueTextInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 import org.apache.hadoop.util.GenericOptionsParser;
 
 /**
  * StageOne - Calculation of the number of followers
  * StageTwo - Determination the top 50 users by the number of followers
+ *            heap - every mapper sends only its local top, one reducer merges them
+ *            sort - all the users are sorted by the number of followers
+ *
+ * Mode sketch - one job: approximate top by the Space-Saving sketches of the splits
 */
 public class Top50 {
+
+    // Number of users in the top (-D followers.top.n=50)
+    public static final String TOP_N = "followers.top.n";
+
+    // Algorithm of the second stage or the sketch (-D followers.top.mode=heap|sort|sketch)
+    public static final String TOP_MODE = "followers.top.mode";
+
+    // Number of counters of the sketch (-D followers.sketch.capacity), 200 * N by default
+    public static final String SKETCH_CAPACITY = "followers.sketch.capacity";
+
+    // Intermediate result as a block-compressed SequenceFile (-D followers.intermediate.binary=true)
+    public static final String INTERMEDIATE_BINARY = "followers.intermediate.binary";
+
+    // Number of users counted in the mapper before the flush (-D followers.inmapper.max.entries=1048576)
+    public static final String INMAPPER_MAX_ENTRIES = "followers.inmapper.max.entries";
      
     /**
      * Input:  key - user_id; value - follower_id
-     * Output: key - user_id; value - const(1)
+     * Output: key - user_id; value - local number of followers
+     *
+     * The followers are counted in the mapper, the counts are sent
+     * when the map is full and at the end of the split
     */
-    public static class MapperStageOne 
-            extends Mapper<Text, Text, IntWritable, IntWritable> {
+    public static class MapperStageOne
+            extends Mapper<IntWritable, IntWritable, IntWritable, IntWritable> {
 
-        private final static IntWritable ONE_CONST = new IntWritable(1);
+        private IntIntHashMap mCounts;
+        private int mMaxEntries;
         private IntWritable mUserId = new IntWritable();
-      
-        public void map(Text key, Text value, Context context) 
+        private IntWritable mNumberFollowers = new IntWritable();
+
+        @Override
+        protected void setup(Context context) {
+            mMaxEntries = context.getConfiguration().getInt(INMAPPER_MAX_ENTRIES, 1 << 20);
+            mCounts = new IntIntHashMap(Math.min(mMaxEntries, 1 << 16));
+        }
+
+        public void map(IntWritable key, IntWritable value, Context context)
                 throws IOException, InterruptedException {
 
-            mUserId.set(Integer.parseInt(key.toString()));
-            context.write(mUserId, ONE_CONST);
+            mCounts.addTo(key.get(), 1);
+            if (mCounts.size() >= mMaxEntries) {
+                flush(context);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            flush(context);
+        }
+
+        private void flush(Context context) throws IOException, InterruptedException {
+            IntIntHashMap.Cursor c = mCounts.cursor();
+            while (c.next()) {
+                mUserId.set(c.key());
+                mNumberFollowers.set(c.value());
+                context.write(mUserId, mNumberFollowers);
+            }
+            mCounts.clear();
         }
     }
     
@@ -89,6 +145,123 @@ public class Top50 {
         }
     }
     
+    /**
+     * The same as MapperStageTwo for the binary intermediate result
+     * Input:  key - user_id; value - number of followers
+     * Output: key - number of followers with a minus; value - user_id
+    */
+    public static class MapperStageTwoBinary
+            extends Mapper<IntWritable, IntWritable, IntWritable, IntWritable> {
+
+        private IntWritable mNumberFollowers = new IntWritable();
+
+        public void map(IntWritable key, IntWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            // With a minus - for sort by descending
+            mNumberFollowers.set(-value.get());
+
+            context.write(mNumberFollowers, key);
+        }
+    }
+
+    /**
+     * Input:  key - user_id; value - number of followers
+     * Output: (local top N of the split) key - user_id; value - number of followers
+    */
+    public static class MapperStageTwoHeap
+            extends Mapper<Text, Text, IntWritable, IntWritable> {
+
+        private TopKHeap mTop;
+
+        @Override
+        protected void setup(Context context) {
+            mTop = new TopKHeap(context.getConfiguration().getInt(TOP_N, 50));
+        }
+
+        public void map(Text key, Text value, Context context)
+                throws IOException, InterruptedException {
+
+            mTop.offer(Integer.parseInt(key.toString()), Integer.parseInt(value.toString()));
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            writeTop(mTop, context);
+        }
+    }
+
+    /**
+     * The same as MapperStageTwoHeap for the binary intermediate result
+     * Input:  key - user_id; value - number of followers
+     * Output: (local top N of the split) key - user_id; value - number of followers
+    */
+    public static class MapperStageTwoHeapBinary
+            extends Mapper<IntWritable, IntWritable, IntWritable, IntWritable> {
+
+        private TopKHeap mTop;
+
+        @Override
+        protected void setup(Context context) {
+            mTop = new TopKHeap(context.getConfiguration().getInt(TOP_N, 50));
+        }
+
+        public void map(IntWritable key, IntWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            mTop.offer(key.get(), value.get());
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            writeTop(mTop, context);
+        }
+    }
+
+    /**
+     * Input:  key - user_id; value - list of the number of followers (one per user)
+     * Output: (total top N by number of followers) key - user_id; value - number of followers
+    */
+    public static class ReducerStageTwoHeap
+            extends Reducer<IntWritable, IntWritable, IntWritable, IntWritable> {
+
+        private TopKHeap mTop;
+
+        @Override
+        protected void setup(Context context) {
+            mTop = new TopKHeap(context.getConfiguration().getInt(TOP_N, 50));
+        }
+
+        public void reduce(IntWritable key, Iterable<IntWritable> values, Context context)
+                throws IOException, InterruptedException {
+
+            for (IntWritable val : values) {
+                mTop.offer(key.get(), val.get());
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            writeTop(mTop, context);
+        }
+    }
+
+    // Writes the users of the top from the first to the last: key - user_id; value - number of followers
+    private static void writeTop(TopKHeap top, TaskInputOutputContext<?, ?, IntWritable, IntWritable> context)
+            throws IOException, InterruptedException {
+
+        IntWritable userId = new IntWritable();
+        IntWritable numberFollowers = new IntWritable();
+
+        top.sort();
+        for (int i = 0; i < top.size(); ++i) {
+            userId.set(top.getId(i));
+            numberFollowers.set(top.getCount(i));
+            context.write(userId, numberFollowers);
+        }
+        top.clear();
+    }
+
     /** 
      * Input:  key - number of followers with a minus; value - user_id
      * Output: (local top50 by number of followers) key - number of followers with a minus; value - user_id
@@ -96,13 +269,19 @@ public class Top50 {
     public static class CombinerStageTwo
             extends Reducer<IntWritable, IntWritable, IntWritable, IntWritable> {
         
+        private int mTopN;
         private int mStop = 0;    
+
+        @Override
+        protected void setup(Context context) {
+            mTopN = context.getConfiguration().getInt(TOP_N, 50);
+        }
        
         public void reduce(IntWritable key, Iterable<IntWritable> values, Context context) 
                 throws IOException, InterruptedException {
 
             for (IntWritable val : values) {
-                if (mStop < 50) {
+                if (mStop < mTopN) {
                     context.write(key, val);
                     ++mStop;
                 } else {
@@ -120,13 +299,19 @@ public class Top50 {
     public static class ReducerStageTwo
             extends Reducer<IntWritable, IntWritable, IntWritable, IntWritable> {
         
+        private int mTopN;
         private int mStop = 0;    
+
+        @Override
+        protected void setup(Context context) {
+            mTopN = context.getConfiguration().getInt(TOP_N, 50);
+        }
        
         public void reduce(IntWritable key, Iterable<IntWritable> values, Context context) 
                 throws IOException, InterruptedException {
 
             for (IntWritable val : values) {
-                if (mStop < 50) {
+                if (mStop < mTopN) {
                     // Remove minus
                     key.set(-key.get());
                     // Swap key and value
@@ -139,6 +324,97 @@ public class Top50 {
         }
     }
   
+    /**
+     * Input:  key - user_id; value - follower_id
+     * Output: key - nothing; value - sketch of the number of followers of the split
+    */
+    public static class MapperSketch
+            extends Mapper<IntWritable, IntWritable, NullWritable, SpaceSavingSketch> {
+
+        private SpaceSavingSketch mSketch;
+
+        @Override
+        protected void setup(Context context) {
+            mSketch = new SpaceSavingSketch(getSketchCapacity(context.getConfiguration()));
+        }
+
+        public void map(IntWritable key, IntWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            mSketch.offer(key.get(), 1);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            context.write(NullWritable.get(), mSketch);
+        }
+    }
+
+    /**
+     * Input:  key - nothing; value - list of the sketches of the splits
+     * Output: (approximate top N) key - user_id; value - estimated number of followers, max overestimation
+    */
+    public static class ReducerSketch
+            extends Reducer<NullWritable, SpaceSavingSketch, IntWritable, Text> {
+
+        private SpaceSavingSketch mSketch;
+        private IntWritable mUserId = new IntWritable();
+        private Text mEstimate = new Text();
+
+        @Override
+        protected void setup(Context context) {
+            mSketch = new SpaceSavingSketch(getSketchCapacity(context.getConfiguration()));
+        }
+
+        public void reduce(NullWritable key, Iterable<SpaceSavingSketch> values, Context context)
+                throws IOException, InterruptedException {
+
+            for (SpaceSavingSketch val : values) {
+                mSketch.merge(val);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            int topN = context.getConfiguration().getInt(TOP_N, 50);
+
+            mSketch.sort();
+            for (int i = 0; i < Math.min(topN, mSketch.size()); ++i) {
+                mUserId.set(mSketch.getId(i));
+                mEstimate.set(mSketch.getCount(i) + "\t" + mSketch.getError(i));
+                context.write(mUserId, mEstimate);
+            }
+        }
+    }
+
+    private static int getSketchCapacity(Configuration conf) {
+        return conf.getInt(SKETCH_CAPACITY, 200 * conf.getInt(TOP_N, 50));
+    }
+
+    // The only job of the sketch mode
+    private static boolean runSketch(Configuration conf, String in, String out) throws Exception {
+        Job job = new Job(conf, "top50");
+
+        job.setNumReduceTasks(1);
+        job.setJarByClass(Top50.class);
+
+        job.setMapperClass(MapperSketch.class);
+        job.setReducerClass(ReducerSketch.class);
+
+        job.setInputFormatClass(EdgeInputFormat.class);
+        job.setOutputFormatClass(TextOutputFormat.class);
+
+        job.setMapOutputKeyClass(NullWritable.class);
+        job.setMapOutputValueClass(SpaceSavingSketch.class);
+        job.setOutputKeyClass(IntWritable.class);
+        job.setOutputValueClass(Text.class);
+
+        FileInputFormat.addInputPath(job, new Path(in));
+        FileOutputFormat.setOutputPath(job, new Path(out));
+
+        return job.waitForCompletion(true);
+    }
+
     public static void main(String[] args) throws Exception {
 
         Configuration confStageOne = new Configuration();
@@ -146,14 +422,19 @@ public class Top50 {
 
         String[] otherArgs = new GenericOptionsParser(confStageOne, args).getRemainingArgs();
         
-        if (otherArgs.length != 2) {
-            System.err.println("Usage: top50 <in> <out>");
+        String mode = confStageOne.get(TOP_MODE, "heap");
+        if (otherArgs.length != 2
+                || !(mode.equals("heap") || mode.equals("sort") || mode.equals("sketch"))) {
+            System.err.println("Usage: top50 [-D " + TOP_MODE + "=heap|sort|sketch] <in> <out>");
             System.exit(2);
         }
-    
-        // Delimiter read - space, for the first job
-        confStageOne.set("mapreduce.input.keyvaluelinerecordreader.key.value.separator", " ");
-    
+        confStageTwo.setInt(TOP_N, confStageOne.getInt(TOP_N, 50));
+        boolean heapMode = mode.equals("heap");
+
+        if (mode.equals("sketch")) {
+            System.exit(runSketch(confStageOne, otherArgs[0], otherArgs[1]) ? 0 : 1);
+        }
+
         // Create the two jobs
         Job jobStageOne = new Job(confStageOne, "top50");
         Job jobStageTwo = new Job(confStageTwo, "top50");
@@ -171,15 +452,33 @@ public class Top50 {
         jobStageOne.setReducerClass(ReducerStageOne.class);
 
         // Set mapper and reducer: second job
-        jobStageTwo.setMapperClass(MapperStageTwo.class);
-        jobStageTwo.setCombinerClass(CombinerStageTwo.class);
-        jobStageTwo.setReducerClass(ReducerStageTwo.class);
+        if (heapMode) {
+            // The result does not depend on the combiner - it is not used
+            jobStageTwo.setMapperClass(MapperStageTwoHeap.class);
+            jobStageTwo.setReducerClass(ReducerStageTwoHeap.class);
+        } else {
+            jobStageTwo.setMapperClass(MapperStageTwo.class);
+            jobStageTwo.setCombinerClass(CombinerStageTwo.class);
+            jobStageTwo.setReducerClass(ReducerStageTwo.class);
+        }
     
         // Input/Output
-        jobStageOne.setInputFormatClass(KeyValueTextInputFormat.class);
-        jobStageOne.setOutputFormatClass(TextOutputFormat.class);
-    
-        jobStageTwo.setInputFormatClass(KeyValueTextInputFormat.class);
+        jobStageOne.setInputFormatClass(EdgeInputFormat.class);
+
+        if (confStageOne.getBoolean(INTERMEDIATE_BINARY, false)) {
+            // user_id -> number of followers without text formatting and parsing
+            jobStageOne.setOutputFormatClass(SequenceFileOutputFormat.class);
+            SequenceFileOutputFormat.setCompressOutput(jobStageOne, true);
+            SequenceFileOutputFormat.setOutputCompressionType(jobStageOne, CompressionType.BLOCK);
+
+            jobStageTwo.setInputFormatClass(SequenceFileInputFormat.class);
+            jobStageTwo.setMapperClass(heapMode ? MapperStageTwoHeapBinary.class
+                                                : MapperStageTwoBinary.class);
+        } else {
+            jobStageOne.setOutputFormatClass(TextOutputFormat.class);
+
+            jobStageTwo.setInputFormatClass(KeyValueTextInputFormat.class);
+        }
         jobStageTwo.setOutputFormatClass(TextOutputFormat.class);
         
         jobStageOne.setOutputKeyClass(IntWritable.class);
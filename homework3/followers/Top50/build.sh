@@ -5,6 +5,6 @@
 #javac -classpath $JARS -d classes WordCount.java
 #jar -cvf wordcount.jar -C classes .
 
-javac -classpath `hadoop classpath` Top50.java 
+javac -classpath `hadoop classpath` -d . Top50.java ../common/EdgeInputFormat.java ../common/IntIntHashMap.java ../common/TopKHeap.java ../common/SpaceSavingSketch.java 
 jar -cvf top50.jar .
 
@@ -1,3 +1,3 @@
 #!/bin/sh
 
-hadoop jar ./top50.jar Top50 -D mapred.reduce.tasks=1 /pub/followers.db ./followers/output  
+hadoop jar ./top50.jar Top50 -D mapred.reduce.tasks=1 -D followers.intermediate.binary=true /pub/followers.db ./followers/output  
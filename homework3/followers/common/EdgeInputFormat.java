@@ -0,0 +1,156 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * EdgeInputFormat.java: Reads the followers database as pairs of integers
+ *
+ * Input Data:  <user_id>[space]<follower_id>
+ * Output Data: key - user_id; value - follower_id
+*/
+
+import java.io.IOException;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+
+/**
+ * The lines are split by LineRecordReader, both numbers are parsed
+ * straight from the bytes of the line without String objects
+*/
+public class EdgeInputFormat extends FileInputFormat<IntWritable, IntWritable> {
+
+    public static enum Counters {
+        EDGES,
+        MALFORMED_LINES
+    }
+
+    @Override
+    public RecordReader<IntWritable, IntWritable> createRecordReader(InputSplit split,
+                                                                     TaskAttemptContext context) {
+        return new EdgeRecordReader();
+    }
+
+    @Override
+    protected boolean isSplitable(JobContext context, Path file) {
+        CompressionCodec codec =
+            new CompressionCodecFactory(context.getConfiguration()).getCodec(file);
+        return codec == null || codec instanceof SplittableCompressionCodec;
+    }
+
+    /**
+     * Skips (and counts) the lines which are not two integers
+    */
+    public static class EdgeRecordReader extends RecordReader<IntWritable, IntWritable> {
+
+        private final LineRecordReader mLineReader = new LineRecordReader();
+        private final IntWritable mUserId = new IntWritable();
+        private final IntWritable mFollowerId = new IntWritable();
+        private org.apache.hadoop.mapreduce.Counter mEdges;
+        private org.apache.hadoop.mapreduce.Counter mMalformedLines;
+        // Position in the current line, is moved by parseInt()
+        private int mPos;
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context)
+                throws IOException, InterruptedException {
+            mLineReader.initialize(split, context);
+            mEdges = context.getCounter(Counters.EDGES);
+            mMalformedLines = context.getCounter(Counters.MALFORMED_LINES);
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException, InterruptedException {
+            while (mLineReader.nextKeyValue()) {
+                if (parse(mLineReader.getCurrentValue())) {
+                    mEdges.increment(1);
+                    return true;
+                }
+                mMalformedLines.increment(1);
+            }
+            return false;
+        }
+
+        // "<user_id>[space or tab]<follower_id>", spaces around are allowed
+        private boolean parse(Text line) {
+            byte[] bytes = line.getBytes();
+            int length = line.getLength();
+
+            mPos = skipSpaces(bytes, 0, length);
+            long userId = parseInt(bytes, length);
+            int pos = mPos;
+            mPos = skipSpaces(bytes, pos, length);
+            // No separator between the numbers
+            if (userId == Long.MIN_VALUE || mPos == pos) {
+                return false;
+            }
+            long followerId = parseInt(bytes, length);
+            if (followerId == Long.MIN_VALUE || skipSpaces(bytes, mPos, length) != length) {
+                return false;
+            }
+            mUserId.set((int)userId);
+            mFollowerId.set((int)followerId);
+            return true;
+        }
+
+        // Returns Long.MIN_VALUE if there is no number or it does not fit into int
+        private long parseInt(byte[] bytes, int length) {
+            boolean negative = false;
+            if (mPos < length && bytes[mPos] == '-') {
+                negative = true;
+                ++mPos;
+            }
+            int first = mPos;
+            long result = 0;
+            while (mPos < length && bytes[mPos] >= '0' && bytes[mPos] <= '9') {
+                result = result * 10 + (bytes[mPos] - '0');
+                if (result > (long)Integer.MAX_VALUE + 1) {
+                    return Long.MIN_VALUE;
+                }
+                ++mPos;
+            }
+            if (mPos == first) {
+                return Long.MIN_VALUE;
+            }
+            result = negative ? -result : result;
+            if (result > Integer.MAX_VALUE) {
+                return Long.MIN_VALUE;
+            }
+            return result;
+        }
+
+        private static int skipSpaces(byte[] bytes, int pos, int length) {
+            while (pos < length && (bytes[pos] == ' ' || bytes[pos] == '\t' || bytes[pos] == '\r')) {
+                ++pos;
+            }
+            return pos;
+        }
+
+        @Override
+        public IntWritable getCurrentKey() {
+            return mUserId;
+        }
+
+        @Override
+        public IntWritable getCurrentValue() {
+            return mFollowerId;
+        }
+
+        @Override
+        public float getProgress() throws IOException, InterruptedException {
+            return mLineReader.getProgress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mLineReader.close();
+        }
+    }
+}
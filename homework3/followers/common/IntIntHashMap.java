@@ -0,0 +1,219 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * IntIntHashMap.java: Hash map int -> int without boxing
+ *
+ * Open addressing with linear probing, the table is grown by two times
+ * when it is half full
+*/
+
+import java.util.Arrays;
+
+public class IntIntHashMap {
+
+    // Marks the free cells of the table, the key itself is stored separately
+    private static final int FREE_KEY = 0;
+
+    private int[] mKeys;
+    private int[] mValues;
+    private int mMask;
+    private int mSize = 0;
+    private boolean mHasFreeKey = false;
+    private int mFreeKeyValue;
+
+    public IntIntHashMap(int expectedSize) {
+        int capacity = 2;
+        while (capacity < 2 * (long)expectedSize && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean containsKey(int key) {
+        if (key == FREE_KEY) {
+            return mHasFreeKey;
+        }
+        return mKeys[find(key)] != FREE_KEY;
+    }
+
+    public int get(int key, int defaultValue) {
+        if (key == FREE_KEY) {
+            return mHasFreeKey ? mFreeKeyValue : defaultValue;
+        }
+        int slot = find(key);
+        return mKeys[slot] != FREE_KEY ? mValues[slot] : defaultValue;
+    }
+
+    public void put(int key, int value) {
+        if (key == FREE_KEY) {
+            if (!mHasFreeKey) {
+                mHasFreeKey = true;
+                ++mSize;
+            }
+            mFreeKeyValue = value;
+            return;
+        }
+        int slot = find(key);
+        if (mKeys[slot] == FREE_KEY) {
+            mKeys[slot] = key;
+            ++mSize;
+            mValues[slot] = value;
+            growIfNeeded();
+        } else {
+            mValues[slot] = value;
+        }
+    }
+
+    /**
+     * Adds increment to the value of the key (a missing key has value 0)
+     * Returns the new value
+    */
+    public int addTo(int key, int increment) {
+        if (key == FREE_KEY) {
+            if (!mHasFreeKey) {
+                mHasFreeKey = true;
+                mFreeKeyValue = 0;
+                ++mSize;
+            }
+            mFreeKeyValue += increment;
+            return mFreeKeyValue;
+        }
+        int slot = find(key);
+        if (mKeys[slot] == FREE_KEY) {
+            mKeys[slot] = key;
+            mValues[slot] = increment;
+            ++mSize;
+            growIfNeeded();
+            return increment;
+        }
+        mValues[slot] += increment;
+        return mValues[slot];
+    }
+
+    /**
+     * Removes the key, returns its value or defaultValue if there is no key
+    */
+    public int remove(int key, int defaultValue) {
+        if (key == FREE_KEY) {
+            if (!mHasFreeKey) {
+                return defaultValue;
+            }
+            mHasFreeKey = false;
+            --mSize;
+            return mFreeKeyValue;
+        }
+        int slot = find(key);
+        if (mKeys[slot] == FREE_KEY) {
+            return defaultValue;
+        }
+        int value = mValues[slot];
+        // Shift back the following keys of the chain to keep probing correct
+        int hole = slot;
+        while (true) {
+            slot = (slot + 1) & mMask;
+            int k = mKeys[slot];
+            if (k == FREE_KEY) {
+                break;
+            }
+            int ideal = hash(k) & mMask;
+            boolean stays = hole <= slot ? (hole < ideal && ideal <= slot)
+                                         : (hole < ideal || ideal <= slot);
+            if (!stays) {
+                mKeys[hole] = k;
+                mValues[hole] = mValues[slot];
+                hole = slot;
+            }
+        }
+        mKeys[hole] = FREE_KEY;
+        --mSize;
+        return value;
+    }
+
+    public void clear() {
+        Arrays.fill(mKeys, FREE_KEY);
+        mHasFreeKey = false;
+        mSize = 0;
+    }
+
+    /**
+     * Iteration over the entries:
+     *     IntIntHashMap.Cursor c = map.cursor();
+     *     while (c.next()) { c.key(); c.value(); }
+     * The map must not be changed during iteration
+    */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    public class Cursor {
+        // -1 - the free key, mKeys.length - end
+        private int mSlot = -2;
+
+        public boolean next() {
+            if (mSlot == -2) {
+                mSlot = -1;
+                if (mHasFreeKey) {
+                    return true;
+                }
+            }
+            do {
+                ++mSlot;
+            } while (mSlot < mKeys.length && mKeys[mSlot] == FREE_KEY);
+            return mSlot < mKeys.length;
+        }
+
+        public int key() {
+            return mSlot == -1 ? FREE_KEY : mKeys[mSlot];
+        }
+
+        public int value() {
+            return mSlot == -1 ? mFreeKeyValue : mValues[mSlot];
+        }
+    }
+
+    // Slot of the key or the free slot where it should be inserted
+    private int find(int key) {
+        int slot = hash(key) & mMask;
+        while (mKeys[slot] != FREE_KEY && mKeys[slot] != key) {
+            slot = (slot + 1) & mMask;
+        }
+        return slot;
+    }
+
+    private void growIfNeeded() {
+        if (2 * mSize <= mKeys.length || mKeys.length == (1 << 30)) {
+            return;
+        }
+        int[] keys = mKeys;
+        int[] values = mValues;
+        allocate(keys.length << 1);
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] != FREE_KEY) {
+                int slot = find(keys[i]);
+                mKeys[slot] = keys[i];
+                mValues[slot] = values[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new int[capacity];
+        mValues = new int[capacity];
+        mMask = capacity - 1;
+    }
+
+    // The user ids are often consecutive - mix the bits (murmur3 finalizer)
+    private static int hash(int key) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
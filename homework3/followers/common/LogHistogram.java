@@ -0,0 +1,207 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * LogHistogram.java: Histogram with logarithmic buckets for the quantiles
+ *                    of the number of followers
+ *
+ * Bucket i holds the values (gamma^(i-1), gamma^i], gamma = (1 + a) / (1 - a),
+ * so every quantile is returned with the relative error at most a
+ * (the same scheme as DDSketch). Histograms with the same accuracy are merged
+ * by adding the buckets, the result does not depend on the order of merges.
+*/
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+public class LogHistogram implements Writable {
+
+    private double mAccuracy;
+    private double mGamma;
+    private double mLogGamma;
+    // Values <= 0
+    private long mZeroCount;
+    private long[] mCounts = new long[64];
+    // Number of the used buckets: 0..mLength-1
+    private int mLength;
+    private long mTotal;
+    private long mMin;
+    private long mMax;
+
+    public LogHistogram() {
+        this(0.01);
+    }
+
+    public LogHistogram(double accuracy) {
+        setAccuracy(accuracy);
+        clear();
+    }
+
+    public double getAccuracy() {
+        return mAccuracy;
+    }
+
+    public long getTotal() {
+        return mTotal;
+    }
+
+    public long getMin() {
+        return mMin;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public void clear() {
+        Arrays.fill(mCounts, 0);
+        mZeroCount = 0;
+        mLength = 0;
+        mTotal = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = Long.MIN_VALUE;
+    }
+
+    // Adds count values equal to value
+    public void add(long value, long count) {
+        if (value <= 0) {
+            mZeroCount += count;
+        } else {
+            int i = index(value);
+            ensureLength(i + 1);
+            mCounts[i] += count;
+        }
+        mTotal += count;
+        mMin = Math.min(mMin, value);
+        mMax = Math.max(mMax, value);
+    }
+
+    public void merge(LogHistogram other) {
+        if (other.mAccuracy != mAccuracy) {
+            throw new IllegalArgumentException("Histograms with different accuracy: "
+                                               + mAccuracy + ", " + other.mAccuracy);
+        }
+        ensureLength(other.mLength);
+        for (int i = 0; i < other.mLength; ++i) {
+            mCounts[i] += other.mCounts[i];
+        }
+        mZeroCount += other.mZeroCount;
+        mTotal += other.mTotal;
+        mMin = Math.min(mMin, other.mMin);
+        mMax = Math.max(mMax, other.mMax);
+    }
+
+    /**
+     * Value of the quantile q (0 <= q <= 1) with the relative error at most the accuracy
+    */
+    public long quantile(double q) {
+        if (mTotal == 0) {
+            return 0;
+        }
+        long rank = (long)Math.floor(q * (mTotal - 1));
+        long seen = mZeroCount;
+        if (rank < seen) {
+            return mMin;
+        }
+        for (int i = 0; i < mLength; ++i) {
+            seen += mCounts[i];
+            if (rank < seen) {
+                // The middle of the bucket in terms of the relative error
+                long value = Math.round(2.0 * Math.pow(mGamma, i) / (mGamma + 1.0));
+                return Math.max(mMin, Math.min(mMax, value));
+            }
+        }
+        return mMax;
+    }
+
+    // Number of the buckets, the bucket 0 holds the value 1
+    public int getNumberBuckets() {
+        return mLength;
+    }
+
+    public long getBucketCount(int i) {
+        return mCounts[i];
+    }
+
+    // The bucket i holds the integer values lower..upper
+    public long getBucketLower(int i) {
+        return i == 0 ? 1 : (long)Math.floor(Math.pow(mGamma, i - 1)) + 1;
+    }
+
+    public long getBucketUpper(int i) {
+        return (long)Math.floor(Math.pow(mGamma, i));
+    }
+
+    public long getZeroCount() {
+        return mZeroCount;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeDouble(mAccuracy);
+        WritableUtils.writeVLong(out, mTotal);
+        WritableUtils.writeVLong(out, mZeroCount);
+        WritableUtils.writeVLong(out, mMin);
+        WritableUtils.writeVLong(out, mMax);
+        // Only the non-empty buckets: (delta of index, count)
+        int nonEmpty = 0;
+        for (int i = 0; i < mLength; ++i) {
+            if (mCounts[i] != 0) {
+                ++nonEmpty;
+            }
+        }
+        WritableUtils.writeVInt(out, nonEmpty);
+        int previous = 0;
+        for (int i = 0; i < mLength; ++i) {
+            if (mCounts[i] != 0) {
+                WritableUtils.writeVInt(out, i - previous);
+                WritableUtils.writeVLong(out, mCounts[i]);
+                previous = i;
+            }
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        setAccuracy(in.readDouble());
+        clear();
+        mTotal = WritableUtils.readVLong(in);
+        mZeroCount = WritableUtils.readVLong(in);
+        mMin = WritableUtils.readVLong(in);
+        mMax = WritableUtils.readVLong(in);
+        int nonEmpty = WritableUtils.readVInt(in);
+        int i = 0;
+        for (int n = 0; n < nonEmpty; ++n) {
+            i += WritableUtils.readVInt(in);
+            ensureLength(i + 1);
+            mCounts[i] = WritableUtils.readVLong(in);
+        }
+    }
+
+    private void setAccuracy(double accuracy) {
+        mAccuracy = accuracy;
+        mGamma = (1.0 + accuracy) / (1.0 - accuracy);
+        mLogGamma = Math.log(mGamma);
+    }
+
+    private int index(long value) {
+        int i = (int)Math.ceil(Math.log(value) / mLogGamma);
+        // Rounding of the logarithm near the bounds of the buckets
+        if (i > 0 && Math.pow(mGamma, i - 1) >= value) {
+            --i;
+        } else if (Math.pow(mGamma, i) < value) {
+            ++i;
+        }
+        return i;
+    }
+
+    private void ensureLength(int length) {
+        if (length > mCounts.length) {
+            mCounts = Arrays.copyOf(mCounts, Math.max(length, 2 * mCounts.length));
+        }
+        mLength = Math.max(mLength, length);
+    }
+}
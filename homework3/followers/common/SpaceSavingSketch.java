@@ -0,0 +1,241 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * SpaceSavingSketch.java: Approximate counting of the most frequent user ids
+ *                         (Space-Saving, Metwally et al.)
+ *
+ * At most `capacity` counters are kept. A new id replaces the id with the
+ * minimal counter and inherits its value as the error, so for every kept id:
+ *     count - error <= true count <= count,   error <= total / capacity
+ * Sketches of different splits are merged as mergeable summaries
+ * (Agarwal et al.) with the same guarantee for the sum of the totals.
+*/
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+public class SpaceSavingSketch implements Writable {
+
+    private int mCapacity;
+    private int mSize = 0;
+    private long mTotal = 0;
+    // Min-heap by count
+    private int[] mIds;
+    private long[] mCounts;
+    private long[] mErrors;
+    // id -> index in the heap
+    private IntIntHashMap mIndex;
+
+    public SpaceSavingSketch() {
+        this(1);
+    }
+
+    public SpaceSavingSketch(int capacity) {
+        allocate(capacity);
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    // Sum of all the increments
+    public long getTotal() {
+        return mTotal;
+    }
+
+    // Upper bound of the count of any id which is not kept
+    public long getMinCount() {
+        return mSize < mCapacity ? 0 : mCounts[0];
+    }
+
+    public void offer(int id, long increment) {
+        mTotal += increment;
+        int i = mIndex.get(id, -1);
+        if (i >= 0) {
+            mCounts[i] += increment;
+            siftDown(i);
+        } else if (mSize < mCapacity) {
+            set(mSize, id, increment, 0);
+            siftUp(mSize++);
+        } else {
+            // Replace the id with the minimal count
+            mIndex.remove(mIds[0], -1);
+            set(0, id, mCounts[0] + increment, mCounts[0]);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Adds the counters of the other sketch, the capacity is not changed
+    */
+    public void merge(SpaceSavingSketch other) {
+        long minThis = getMinCount();
+        long minOther = other.getMinCount();
+        int n = mSize;
+
+        int[] ids = new int[n + other.mSize];
+        long[] counts = new long[ids.length];
+        long[] errors = new long[ids.length];
+
+        // The ids of this sketch, an id missed in the other one could have there up to minOther
+        for (int i = 0; i < n; ++i) {
+            ids[i] = mIds[i];
+            int j = other.mIndex.get(mIds[i], -1);
+            if (j >= 0) {
+                counts[i] = mCounts[i] + other.mCounts[j];
+                errors[i] = mErrors[i] + other.mErrors[j];
+            } else {
+                counts[i] = mCounts[i] + minOther;
+                errors[i] = mErrors[i] + minOther;
+            }
+        }
+        // The ids of the other sketch only
+        for (int j = 0; j < other.mSize; ++j) {
+            if (mIndex.get(other.mIds[j], -1) < 0) {
+                ids[n] = other.mIds[j];
+                counts[n] = other.mCounts[j] + minThis;
+                errors[n] = other.mErrors[j] + minThis;
+                ++n;
+            }
+        }
+        long total = mTotal + other.mTotal;
+
+        // Keep the largest counters: the heap of the capacity is built by offering everything
+        clear();
+        mTotal = total;
+        for (int i = 0; i < n; ++i) {
+            if (mSize < mCapacity) {
+                set(mSize, ids[i], counts[i], errors[i]);
+                siftUp(mSize++);
+            } else if (counts[i] > mCounts[0]) {
+                mIndex.remove(mIds[0], -1);
+                set(0, ids[i], counts[i], errors[i]);
+                siftDown(0);
+            }
+        }
+    }
+
+    /**
+     * Sorts the counters by descending: getId(0) is the most frequent id
+     * After sort() only getId(), getCount(), getError() and clear() may be called
+    */
+    public void sort() {
+        for (int n = mSize - 1; n > 0; --n) {
+            swap(0, n);
+            siftDown(0, n);
+        }
+    }
+
+    public int getId(int i) {
+        return mIds[i];
+    }
+
+    public long getCount(int i) {
+        return mCounts[i];
+    }
+
+    public long getError(int i) {
+        return mErrors[i];
+    }
+
+    public void clear() {
+        mSize = 0;
+        mTotal = 0;
+        mIndex.clear();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, mCapacity);
+        WritableUtils.writeVInt(out, mSize);
+        WritableUtils.writeVLong(out, mTotal);
+        for (int i = 0; i < mSize; ++i) {
+            out.writeInt(mIds[i]);
+            WritableUtils.writeVLong(out, mCounts[i]);
+            WritableUtils.writeVLong(out, mErrors[i]);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        int capacity = WritableUtils.readVInt(in);
+        if (capacity != mCapacity) {
+            allocate(capacity);
+        } else {
+            clear();
+        }
+        int size = WritableUtils.readVInt(in);
+        mTotal = WritableUtils.readVLong(in);
+        // Written in the heap order
+        for (int i = 0; i < size; ++i) {
+            set(i, in.readInt(), WritableUtils.readVLong(in), WritableUtils.readVLong(in));
+        }
+        mSize = size;
+    }
+
+    private void allocate(int capacity) {
+        mCapacity = capacity;
+        mSize = 0;
+        mTotal = 0;
+        mIds = new int[capacity];
+        mCounts = new long[capacity];
+        mErrors = new long[capacity];
+        mIndex = new IntIntHashMap(capacity);
+    }
+
+    private void set(int i, int id, long count, long error) {
+        mIds[i] = id;
+        mCounts[i] = count;
+        mErrors[i] = error;
+        mIndex.put(id, i);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (mCounts[i] >= mCounts[parent]) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        siftDown(i, mSize);
+    }
+
+    private void siftDown(int i, int size) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && mCounts[left] < mCounts[smallest]) {
+                smallest = left;
+            }
+            if (right < size && mCounts[right] < mCounts[smallest]) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int id = mIds[i];
+        long count = mCounts[i];
+        long error = mErrors[i];
+        set(i, mIds[j], mCounts[j], mErrors[j]);
+        set(j, id, count, error);
+    }
+}
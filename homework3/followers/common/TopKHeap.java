@@ -0,0 +1,117 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * TopKHeap.java: K users with the largest number of followers
+ *
+ * Bounded min-heap of pairs (user_id, number of followers), the root is
+ * the worst user of the top. With equal number of followers the user with
+ * the smaller id is better, so the result does not depend on the order of input
+*/
+
+public class TopKHeap {
+
+    private final int mK;
+    private final int[] mIds;
+    private final int[] mCounts;
+    private int mSize = 0;
+
+    public TopKHeap(int k) {
+        mK = k;
+        mIds = new int[k];
+        mCounts = new int[k];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void offer(int id, int count) {
+        if (mK == 0) {
+            return;
+        }
+        if (mSize < mK) {
+            mIds[mSize] = id;
+            mCounts[mSize] = count;
+            siftUp(mSize++);
+        } else if (less(mIds[0], mCounts[0], id, count)) {
+            mIds[0] = id;
+            mCounts[0] = count;
+            siftDown(0, mSize);
+        }
+    }
+
+    /**
+     * Sorts the users from the best to the worst: getId(0) is the first in the top
+     * After sort() only getId(), getCount() and clear() may be called
+    */
+    public void sort() {
+        // Heap sort: the worst is moved to the end
+        for (int n = mSize - 1; n > 0; --n) {
+            swap(0, n);
+            siftDown(0, n);
+        }
+    }
+
+    public int getId(int i) {
+        return mIds[i];
+    }
+
+    public int getCount(int i) {
+        return mCounts[i];
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    // (id1, count1) is worse than (id2, count2)
+    private static boolean less(int id1, int count1, int id2, int count2) {
+        if (count1 != count2) {
+            return count1 < count2;
+        }
+        return id1 > id2;
+    }
+
+    private boolean less(int i, int j) {
+        return less(mIds[i], mCounts[i], mIds[j], mCounts[j]);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!less(i, parent)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int size) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && less(left, smallest)) {
+                smallest = left;
+            }
+            if (right < size && less(right, smallest)) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int id = mIds[i];
+        int count = mCounts[i];
+        mIds[i] = mIds[j];
+        mCounts[i] = mCounts[j];
+        mIds[j] = id;
+        mCounts[j] = count;
+    }
+}
@@ -0,0 +1,393 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * CorpusStatistics.java: Number of documents, document frequency and corpus
+ *                        frequency of the terms by a single scan of the dump
+ *
+ * Input Data:  *.xml file (dump of wikiedia)
+ * Output Data: part-r-*         <word>[Tab]<document frequency>[Tab]<corpus frequency>
+ *              _corpus_summary  #documents[Tab]<number of documents>
+ *                               <stop word>[Tab]<corpus frequency>  (the most frequent words)
+ *
+ * The key of the number of documents is not a term ('#' is a delimiter of the
+ * tokenizer), so it does not collide with the stop words
+ *
+ * The summary is the side file of InvertedIndex (distributed cache)
+*/
+
+package shad.homework3.task2;
+
+import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import com.google.common.base.Charsets;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+public class CorpusStatistics {
+
+    // Number of the stop words - the most frequent words of the corpus (-D corpus.stopwords.number=20)
+    public static final String STOPWORDS_NUMBER = "corpus.stopwords.number";
+
+    // Side file in the output directory
+    public static final String SUMMARY_FILE = "_corpus_summary";
+    // Name of the side file in the working directory of the tasks
+    public static final String SUMMARY_LINK = "corpus_summary";
+    // Key of the number of documents in the side file
+    public static final String DOCUMENTS_KEY = "#documents";
+
+    // Named output of the reducers: the local top of the words
+    public static final String STOPWORDS_OUTPUT = "stopwords";
+
+    public static enum Counters {
+        DOCUMENTS
+    }
+
+    /**
+     * Pair(document frequency, corpus frequency)
+    */
+    public static class TermStatistics implements Writable {
+        private long mDocumentFrequency;
+        private long mCorpusFrequency;
+
+        public void set(long documentFrequency, long corpusFrequency) {
+            mDocumentFrequency = documentFrequency;
+            mCorpusFrequency = corpusFrequency;
+        }
+
+        public long getDocumentFrequency() {
+            return mDocumentFrequency;
+        }
+
+        public long getCorpusFrequency() {
+            return mCorpusFrequency;
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            WritableUtils.writeVLong(out, mDocumentFrequency);
+            WritableUtils.writeVLong(out, mCorpusFrequency);
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            mDocumentFrequency = WritableUtils.readVLong(in);
+            mCorpusFrequency = WritableUtils.readVLong(in);
+        }
+
+        @Override
+        public String toString() {
+            return mDocumentFrequency + "\t" + mCorpusFrequency;
+        }
+    }
+
+    /**
+     * Input:  key - docid; value - page
+     * Output: key - word; value - (1, term frequency)
+    */
+    public static class MapperStatistics
+            extends Mapper<IntWritable, WikiPage, Text, TermStatistics> {
+
+        private TermCounter mTermCounter = new TermCounter();
+        private Text mTerm = new Text();
+        private TermStatistics mStatistics = new TermStatistics();
+
+        public void map(IntWritable key, WikiPage value, Context context)
+                throws IOException, InterruptedException {
+
+            context.getCounter(Counters.DOCUMENTS).increment(1);
+
+            mTermCounter.count(value.getText());
+            for (int i = 0; i < mTermCounter.size(); ++i) {
+                mTermCounter.getTerm(i, mTerm);
+                mStatistics.set(1, mTermCounter.getFrequency(i));
+                context.write(mTerm, mStatistics);
+            }
+        }
+    }
+
+    /**
+     * Input:  key - word; value - list(local statistics)
+     * Output: key - word; value - (document frequency, corpus frequency)
+    */
+    public static class CombinerStatistics
+            extends Reducer<Text, TermStatistics, Text, TermStatistics> {
+
+        private TermStatistics mStatistics = new TermStatistics();
+
+        public void reduce(Text key, Iterable<TermStatistics> values, Context context)
+                throws IOException, InterruptedException {
+
+            mStatistics.set(0, 0);
+            for (TermStatistics val : values) {
+                mStatistics.set(mStatistics.getDocumentFrequency() + val.getDocumentFrequency(),
+                                mStatistics.getCorpusFrequency() + val.getCorpusFrequency());
+            }
+            context.write(key, mStatistics);
+        }
+    }
+
+    /**
+     * Input:  key - word; value - list(local statistics)
+     * Output: key - word; value - (document frequency, corpus frequency)
+     *         stopwords-r-*: the local top of the words by corpus frequency
+     *
+     * Every word comes to one reducer, so the global top is in the union of the local tops
+    */
+    public static class ReducerStatistics
+            extends Reducer<Text, TermStatistics, Text, TermStatistics> {
+
+        private TermStatistics mStatistics = new TermStatistics();
+        private int mNumberStopWords;
+        private PriorityQueue<StopWord> mTop;
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            mNumberStopWords = context.getConfiguration().getInt(STOPWORDS_NUMBER, 20);
+            mTop = new PriorityQueue<StopWord>(Math.max(mNumberStopWords, 1), StopWord.WORST_FIRST);
+        }
+
+        public void reduce(Text key, Iterable<TermStatistics> values, Context context)
+                throws IOException, InterruptedException {
+
+            mStatistics.set(0, 0);
+            for (TermStatistics val : values) {
+                mStatistics.set(mStatistics.getDocumentFrequency() + val.getDocumentFrequency(),
+                                mStatistics.getCorpusFrequency() + val.getCorpusFrequency());
+            }
+            context.write(key, mStatistics);
+
+            offer(mTop, mNumberStopWords, key.toString(), mStatistics.getCorpusFrequency());
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            MultipleOutputs<Text, TermStatistics> outputs = new MultipleOutputs<Text, TermStatistics>(context);
+            for (StopWord word : mTop) {
+                outputs.write(STOPWORDS_OUTPUT, new Text(word.mWord), new LongWritable(word.mFrequency));
+            }
+            outputs.close();
+        }
+    }
+
+    /**
+     * Word with its corpus frequency
+    */
+    private static class StopWord {
+        // The root of the queue is the worst word: the less frequent one,
+        // with equal frequency the larger word
+        static final Comparator<StopWord> WORST_FIRST = new Comparator<StopWord>() {
+            @Override
+            public int compare(StopWord a, StopWord b) {
+                if (a.mFrequency != b.mFrequency) {
+                    return a.mFrequency < b.mFrequency ? -1 : 1;
+                }
+                return b.mWord.compareTo(a.mWord);
+            }
+        };
+
+        final String mWord;
+        final long mFrequency;
+
+        StopWord(String word, long frequency) {
+            mWord = word;
+            mFrequency = frequency;
+        }
+    }
+
+    // Keeps the k most frequent words in the queue
+    private static void offer(PriorityQueue<StopWord> top, int k, String word, long frequency) {
+        if (k <= 0) {
+            return;
+        }
+        StopWord candidate = new StopWord(word, frequency);
+        if (top.size() < k) {
+            top.add(candidate);
+        } else if (StopWord.WORST_FIRST.compare(top.peek(), candidate) < 0) {
+            top.poll();
+            top.add(candidate);
+        }
+    }
+
+    /**
+     * Number of documents and the stop words of the corpus (the side file)
+    */
+    public static class Summary {
+        private long mDocuments;
+        private Set<String> mStopWords = new HashSet<String>();
+
+        public long getDocuments() {
+            return mDocuments;
+        }
+
+        public Set<String> getStopWords() {
+            return mStopWords;
+        }
+
+        /**
+         * Reads the side file added to the job by addToJob()
+        */
+        public static Summary load(JobContext context) throws IOException {
+            // The local copy of the distributed cache
+            File local = new File(SUMMARY_LINK);
+            if (local.exists()) {
+                return read(new FileInputStream(local));
+            }
+            URI[] files = context.getCacheFiles();
+            if (files != null) {
+                for (URI uri : files) {
+                    if (SUMMARY_LINK.equals(uri.getFragment())) {
+                        Path path = new Path(uri.getPath());
+                        FileSystem fs = FileSystem.get(uri, context.getConfiguration());
+                        return read(fs.open(path));
+                    }
+                }
+            }
+            throw new IOException("No " + SUMMARY_LINK + " in the distributed cache");
+        }
+
+        public static Summary read(InputStream in) throws IOException {
+            Summary summary = new Summary();
+            boolean documents = false;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    if (fields[0].equals(DOCUMENTS_KEY)) {
+                        summary.mDocuments = Long.parseLong(fields[1]);
+                        documents = true;
+                    } else if (!fields[0].isEmpty()) {
+                        summary.mStopWords.add(fields[0]);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            if (!documents) {
+                throw new IOException("No " + DOCUMENTS_KEY + " in the corpus summary");
+            }
+            return summary;
+        }
+
+        /**
+         * Adds the side file to the distributed cache of the job
+        */
+        public static void addToJob(Job job, Path summary) throws IOException {
+            FileSystem fs = summary.getFileSystem(job.getConfiguration());
+            URI uri = fs.makeQualified(summary).toUri();
+            job.addCacheFile(URI.create(uri + "#" + SUMMARY_LINK));
+        }
+    }
+
+    /**
+     * Runs the job and writes the side file, returns its path or null if the job failed
+    */
+    public static Path runJob(Configuration conf, Path input, Path output) throws Exception {
+        Job job = new Job(conf, "corpusstatistics");
+        job.setJarByClass(CorpusStatistics.class);
+        // The side file and the statistics are read by the tab
+        job.getConfiguration().set("mapreduce.output.textoutputformat.separator", "\t");
+
+        job.setMapperClass(MapperStatistics.class);
+        job.setCombinerClass(CombinerStatistics.class);
+        job.setReducerClass(ReducerStatistics.class);
+
+        job.setInputFormatClass(WikiPageInputFormat.class);
+        job.setOutputFormatClass(TextOutputFormat.class);
+        MultipleOutputs.addNamedOutput(job, STOPWORDS_OUTPUT, TextOutputFormat.class,
+                                       Text.class, LongWritable.class);
+
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(TermStatistics.class);
+
+        FileInputFormat.addInputPath(job, input);
+        FileOutputFormat.setOutputPath(job, output);
+
+        if (!job.waitForCompletion(true)) {
+            return null;
+        }
+        long documents = job.getCounters().findCounter(Counters.DOCUMENTS).getValue();
+
+        // The global top of the words from the local tops of the reducers
+        int numberStopWords = conf.getInt(STOPWORDS_NUMBER, 20);
+        PriorityQueue<StopWord> top =
+            new PriorityQueue<StopWord>(Math.max(numberStopWords, 1), StopWord.WORST_FIRST);
+        FileSystem fs = output.getFileSystem(conf);
+        for (FileStatus status : fs.listStatus(output)) {
+            if (!status.getPath().getName().startsWith(STOPWORDS_OUTPUT + "-")) {
+                continue;
+            }
+            BufferedReader reader =
+                new BufferedReader(new InputStreamReader(fs.open(status.getPath()), Charsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    offer(top, numberStopWords, fields[0], Long.parseLong(fields[1]));
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        List<StopWord> stopWords = new ArrayList<StopWord>(top);
+        Collections.sort(stopWords, Collections.reverseOrder(StopWord.WORST_FIRST));
+
+        Path summary = new Path(output, SUMMARY_FILE);
+        Writer writer = new OutputStreamWriter(fs.create(summary, true), Charsets.UTF_8);
+        try {
+            writer.write(DOCUMENTS_KEY + "\t" + documents + "\n");
+            for (StopWord word : stopWords) {
+                writer.write(word.mWord + "\t" + word.mFrequency + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        return summary;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        if (otherArgs.length != 2) {
+            System.err.println("Usage: corpusstatistics <in> <out>");
+            System.exit(2);
+        }
+
+        Path summary = runJob(conf, new Path(otherArgs[0]), new Path(otherArgs[1]));
+        System.exit(summary != null ? 0 : 1);
+    }
+}
@@ -0,0 +1,591 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * IncrementalIndex.java: Incremental update of the inverted index by a new dump
+ *
+ * Input Data:  *.xml file (the new dump of wikiedia), directory of the index
+ * Output Data: <index>/statistics        CorpusStatistics of the first dump (the stop words)
+ *              <index>/segment-NNNNN     segments of the index, the later ones are newer:
+ *                  pages/part-r-*        page id -> fingerprint of the text (all the pages
+ *                                        of the dump, SequenceFile)
+ *                  pages/changes-r-*     <page id>[Tab]new|changed|deleted
+ *                  index/part-r-*.dict, index/part-r-*.post
+ *                                        postings (PostingsOutputFormat) of the new and
+ *                                        changed pages, the score is tf (not quantized)
+ *                  _segment_summary      #documents[Tab]<number of the pages of the dump>
+ *
+ * The fingerprints of the dump are joined with the fingerprints of the latest
+ * segment, only the new and changed pages are indexed to the next segment.
+ * The changed and deleted pages are the tombstones of the segment: their
+ * postings in the older segments are dead. The first run indexes all the pages.
+ *
+ * The postings keep tf and the document frequency of the segment, IDF is
+ * computed by the reader of the index (QueryIndex) over all the segments.
+ * When there are more than incrementalindex.segments.max segments they are
+ * compacted to one: the dead postings are dropped and the lists are merged.
+*/
+
+package shad.homework3.task2;
+
+import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import com.google.common.base.Charsets;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+public class IncrementalIndex {
+
+    // Maximal number of the segments before the compaction (-D incrementalindex.segments.max=8)
+    public static final String SEGMENTS_MAX = "incrementalindex.segments.max";
+
+    // Directory of the pages of the segment, set by the driver for the mappers
+    // unless the segment is the first one
+    public static final String CHANGES = "incrementalindex.changes";
+    // Directory of the index, set by the driver for the compaction
+    public static final String INDEX = "incrementalindex.index";
+
+    public static final String STATISTICS_DIR = "statistics";
+    public static final String SEGMENT_PREFIX = "segment-";
+    public static final String PAGES_DIR = "pages";
+    public static final String INDEX_DIR = "index";
+    public static final String SEGMENT_SUMMARY = "_segment_summary";
+
+    // Named output of the page changes
+    public static final String CHANGES_OUTPUT = "changes";
+    public static final String NEW = "new";
+    public static final String CHANGED = "changed";
+    public static final String DELETED = "deleted";
+
+    public static enum Counters {
+        PAGES,
+        NEW_PAGES,
+        CHANGED_PAGES,
+        DELETED_PAGES,
+        UNCHANGED_PAGES,
+        DEAD_POSTINGS
+    }
+
+    /**
+     * Fingerprint of the page text from the dump (current) or from the previous segment
+    */
+    public static class Fingerprint implements Writable {
+        private long mValue;
+        private boolean mCurrent;
+
+        public void set(long value, boolean current) {
+            mValue = value;
+            mCurrent = current;
+        }
+
+        public long getValue() {
+            return mValue;
+        }
+
+        public boolean isCurrent() {
+            return mCurrent;
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeLong(mValue);
+            out.writeBoolean(mCurrent);
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            mValue = in.readLong();
+            mCurrent = in.readBoolean();
+        }
+    }
+
+    /**
+     * Input:  key - docid; value - page
+     * Output: key - docid; value - fingerprint of the text (current)
+    */
+    public static class MapperPageFingerprint
+            extends Mapper<IntWritable, WikiPage, IntWritable, Fingerprint> {
+
+        private Fingerprint mFingerprint = new Fingerprint();
+
+        public void map(IntWritable key, WikiPage value, Context context)
+                throws IOException, InterruptedException {
+
+            Text text = value.getText();
+            mFingerprint.set(MD5Hash.digest(text.getBytes(), 0, text.getLength()).halfDigest(), true);
+            context.write(key, mFingerprint);
+        }
+    }
+
+    /**
+     * Input:  key - docid; value - fingerprint (pages of the latest segment)
+     * Output: key - docid; value - fingerprint (previous)
+    */
+    public static class MapperPreviousFingerprint
+            extends Mapper<IntWritable, LongWritable, IntWritable, Fingerprint> {
+
+        private Fingerprint mFingerprint = new Fingerprint();
+
+        public void map(IntWritable key, LongWritable value, Context context)
+                throws IOException, InterruptedException {
+
+            mFingerprint.set(value.get(), false);
+            context.write(key, mFingerprint);
+        }
+    }
+
+    /**
+     * Input:  key - docid; value - list(fingerprint)
+     * Output: key - docid; value - fingerprint of the current page
+     *         changes-r-*: <docid>[Tab]new|changed|deleted
+    */
+    public static class ReducerPageChanges
+            extends Reducer<IntWritable, Fingerprint, IntWritable, LongWritable> {
+
+        private MultipleOutputs<IntWritable, LongWritable> mOutputs;
+        private LongWritable mFingerprint = new LongWritable();
+        private Text mNew = new Text(NEW);
+        private Text mChanged = new Text(CHANGED);
+        private Text mDeleted = new Text(DELETED);
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            mOutputs = new MultipleOutputs<IntWritable, LongWritable>(context);
+        }
+
+        public void reduce(IntWritable key, Iterable<Fingerprint> values, Context context)
+                throws IOException, InterruptedException {
+
+            boolean hasCurrent = false;
+            boolean hasPrevious = false;
+            long current = 0;
+            long previous = 0;
+            for (Fingerprint val : values) {
+                if (val.isCurrent()) {
+                    hasCurrent = true;
+                    current = val.getValue();
+                } else {
+                    hasPrevious = true;
+                    previous = val.getValue();
+                }
+            }
+
+            if (!hasCurrent) {
+                context.getCounter(Counters.DELETED_PAGES).increment(1);
+                mOutputs.write(CHANGES_OUTPUT, key, mDeleted);
+                return;
+            }
+            context.getCounter(Counters.PAGES).increment(1);
+            mFingerprint.set(current);
+            context.write(key, mFingerprint);
+            if (!hasPrevious) {
+                context.getCounter(Counters.NEW_PAGES).increment(1);
+                mOutputs.write(CHANGES_OUTPUT, key, mNew);
+            } else if (previous != current) {
+                context.getCounter(Counters.CHANGED_PAGES).increment(1);
+                mOutputs.write(CHANGES_OUTPUT, key, mChanged);
+            } else {
+                context.getCounter(Counters.UNCHANGED_PAGES).increment(1);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            mOutputs.close();
+        }
+    }
+
+    /**
+     * input:  key - docid; value - page
+     * output: key - (word, tf); value - docid
+     *
+     * The mapper of InvertedIndex for the new and changed pages only
+    */
+    public static class MapperSegment extends InvertedIndex.MapperInvertedIndex {
+
+        // Sorted ids of the new and changed pages, null if all the pages are new
+        private int[] mPages;
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            super.setup(context);
+            Configuration conf = context.getConfiguration();
+            if (conf.get(CHANGES) != null) {
+                mPages = readPages(conf, new Path(conf.get(CHANGES)), DELETED);
+            }
+        }
+
+        @Override
+        public void map(IntWritable key, WikiPage value, Context context)
+                throws IOException, InterruptedException {
+
+            if (mPages == null || Arrays.binarySearch(mPages, key.get()) >= 0) {
+                super.map(key, value, context);
+            }
+        }
+    }
+
+    /**
+     * input:  key - (word, tf); value - docid
+     * output: key - word; value - all the postings with tf as the score
+    */
+    public static class ReducerSegment
+            extends Reducer<InvertedIndex.WordTfKey, IntWritable, Text, PostingList> {
+
+        private PostingList mPostings = new PostingList();
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            mPostings.setTermFrequencies(true);
+        }
+
+        public void reduce(InvertedIndex.WordTfKey key, Iterable<IntWritable> values, Context context)
+                throws IOException, InterruptedException {
+
+            mPostings.clear();
+            for (IntWritable val : values) {
+                // The key holds tf of the current value
+                mPostings.add(val.get(), key.getSecond().get());
+            }
+            mPostings.setDocumentFrequency(mPostings.size());
+            context.write(key.getFirst(), mPostings);
+        }
+    }
+
+    /**
+     * Input:  key - word; value - postings of a segment
+     * Output: key - word; value - the live postings
+     *
+     * The posting of the segment is dead if the page is a tombstone of a later segment
+    */
+    public static class MapperCompaction
+            extends Mapper<Text, PostingList, Text, PostingList> {
+
+        // Sorted ids of the pages changed or deleted by the later segments
+        private int[] mTombstones = new int[0];
+        private int mSegment;
+        private PostingList mLive = new PostingList();
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            // tf is not quantized by the shuffle
+            mLive.setTermFrequencies(true);
+            Configuration conf = context.getConfiguration();
+            // <index>/segment-NNNNN/index/part-r-*.dict
+            Path file = ((FileSplit) context.getInputSplit()).getPath();
+            mSegment = segmentNumber(file.getParent().getParent());
+
+            for (Path segment : listSegments(conf, new Path(conf.get(INDEX)))) {
+                if (segmentNumber(segment) <= mSegment) {
+                    continue;
+                }
+                int[] pages = readPages(conf, new Path(segment, PAGES_DIR), NEW);
+                int size = mTombstones.length;
+                mTombstones = Arrays.copyOf(mTombstones, size + pages.length);
+                System.arraycopy(pages, 0, mTombstones, size, pages.length);
+            }
+            Arrays.sort(mTombstones);
+        }
+
+        public void map(Text key, PostingList value, Context context)
+                throws IOException, InterruptedException {
+
+            mLive.clear();
+            for (int i = 0; i < value.size(); ++i) {
+                if (Arrays.binarySearch(mTombstones, value.getDocId(i)) >= 0) {
+                    context.getCounter(Counters.DEAD_POSTINGS).increment(1);
+                } else {
+                    mLive.add(value.getDocId(i), value.getScore(i));
+                }
+            }
+            if (mLive.size() > 0) {
+                context.write(key, mLive);
+            }
+        }
+    }
+
+    /**
+     * Input:  key - word; value - list(live postings of the segments)
+     * Output: key - word; value - the merged postings
+     *
+     * A page is live in one segment only, so the lists are disjoint
+    */
+    public static class ReducerCompaction
+            extends Reducer<Text, PostingList, Text, PostingList> {
+
+        private PostingList mPostings = new PostingList();
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            mPostings.setTermFrequencies(true);
+        }
+
+        public void reduce(Text key, Iterable<PostingList> values, Context context)
+                throws IOException, InterruptedException {
+
+            mPostings.clear();
+            for (PostingList val : values) {
+                for (int i = 0; i < val.size(); ++i) {
+                    mPostings.add(val.getDocId(i), val.getScore(i));
+                }
+            }
+            mPostings.setDocumentFrequency(mPostings.size());
+            context.write(key, mPostings);
+        }
+    }
+
+    // Sorted ids of the pages of the changes-* files of the directory but the excluded
+    // kind: DELETED - the indexed pages, NEW - the tombstones
+    static int[] readPages(Configuration conf, Path pages, String excluded) throws IOException {
+        int[] ids = new int[1024];
+        int size = 0;
+        FileSystem fs = pages.getFileSystem(conf);
+        FileStatus[] files = fs.globStatus(new Path(pages, CHANGES_OUTPUT + "-*"));
+        if (files == null) {
+            return new int[0];
+        }
+        for (FileStatus status : files) {
+            BufferedReader reader =
+                new BufferedReader(new InputStreamReader(fs.open(status.getPath()), Charsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    if (line.startsWith(excluded, tab + 1)) {
+                        continue;
+                    }
+                    if (size == ids.length) {
+                        ids = Arrays.copyOf(ids, 2 * size);
+                    }
+                    ids[size++] = Integer.parseInt(line.substring(0, tab));
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        ids = Arrays.copyOf(ids, size);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    // Segments of the index from the oldest to the newest
+    static List<Path> listSegments(Configuration conf, Path index) throws IOException {
+        List<Path> segments = new ArrayList<Path>();
+        FileSystem fs = index.getFileSystem(conf);
+        FileStatus[] files = fs.globStatus(new Path(index, SEGMENT_PREFIX + "*"));
+        if (files != null) {
+            for (FileStatus status : files) {
+                segments.add(status.getPath());
+            }
+        }
+        Collections.sort(segments, new Comparator<Path>() {
+            @Override
+            public int compare(Path a, Path b) {
+                return Integer.compare(segmentNumber(a), segmentNumber(b));
+            }
+        });
+        return segments;
+    }
+
+    static int segmentNumber(Path segment) {
+        return Integer.parseInt(segment.getName().substring(SEGMENT_PREFIX.length()));
+    }
+
+    static Path segmentPath(Path index, int number) {
+        return new Path(index, String.format("%s%05d", SEGMENT_PREFIX, number));
+    }
+
+    /**
+     * Writes the next segment by the dump, returns false if a job failed
+    */
+    public static boolean update(Configuration conf, Path dump, Path index) throws Exception {
+        FileSystem fs = index.getFileSystem(conf);
+
+        // The stop words are of the first dump
+        Path summary = new Path(new Path(index, STATISTICS_DIR), CorpusStatistics.SUMMARY_FILE);
+        if (!fs.exists(summary)) {
+            summary = CorpusStatistics.runJob(new Configuration(conf), dump,
+                                              new Path(index, STATISTICS_DIR));
+            if (summary == null) {
+                return false;
+            }
+        }
+
+        List<Path> segments = listSegments(conf, index);
+        int number = segments.isEmpty() ? 0 : segmentNumber(segments.get(segments.size() - 1)) + 1;
+        Path segment = segmentPath(index, number);
+
+        // The changed pages
+        Job changes = new Job(conf, "incrementalindex.changes");
+        changes.setJarByClass(IncrementalIndex.class);
+        MultipleInputs.addInputPath(changes, dump, WikiPageInputFormat.class,
+                                    MapperPageFingerprint.class);
+        if (!segments.isEmpty()) {
+            Path previous = new Path(segments.get(segments.size() - 1), PAGES_DIR);
+            MultipleInputs.addInputPath(changes, new Path(previous, "part-*"),
+                                        SequenceFileInputFormat.class, MapperPreviousFingerprint.class);
+        }
+        changes.setReducerClass(ReducerPageChanges.class);
+        changes.setMapOutputKeyClass(IntWritable.class);
+        changes.setMapOutputValueClass(Fingerprint.class);
+        changes.setOutputKeyClass(IntWritable.class);
+        changes.setOutputValueClass(LongWritable.class);
+        changes.setOutputFormatClass(SequenceFileOutputFormat.class);
+        changes.getConfiguration().set("mapreduce.output.textoutputformat.separator", "\t");
+        MultipleOutputs.addNamedOutput(changes, CHANGES_OUTPUT, TextOutputFormat.class,
+                                       IntWritable.class, Text.class);
+        FileOutputFormat.setOutputPath(changes, new Path(segment, PAGES_DIR));
+        if (!changes.waitForCompletion(true)) {
+            return false;
+        }
+
+        org.apache.hadoop.mapreduce.Counters counters = changes.getCounters();
+        long pages = counters.findCounter(Counters.PAGES).getValue();
+        long indexed = counters.findCounter(Counters.NEW_PAGES).getValue()
+                       + counters.findCounter(Counters.CHANGED_PAGES).getValue();
+        long deleted = counters.findCounter(Counters.DELETED_PAGES).getValue();
+        if (indexed + deleted == 0) {
+            System.out.println("No changes of the pages, the segment is not written");
+            fs.delete(segment, true);
+            return true;
+        }
+
+        // The postings of the new and changed pages
+        if (indexed > 0) {
+            Job job = new Job(conf, "incrementalindex.segment");
+            job.setJarByClass(IncrementalIndex.class);
+            // All the pages of the first segment are new, they are not filtered
+            if (!segments.isEmpty()) {
+                job.getConfiguration().set(CHANGES, new Path(segment, PAGES_DIR).toString());
+            }
+            job.setInputFormatClass(WikiPageInputFormat.class);
+            CorpusStatistics.Summary.addToJob(job, summary);
+
+            job.setMapperClass(MapperSegment.class);
+            job.setReducerClass(ReducerSegment.class);
+            job.setPartitionerClass(InvertedIndex.WordTfKey.WordPartitioner.class);
+            job.setGroupingComparatorClass(InvertedIndex.WordTfKey.WordComparator.class);
+            job.setMapOutputKeyClass(InvertedIndex.WordTfKey.class);
+            job.setMapOutputValueClass(IntWritable.class);
+            job.setOutputFormatClass(PostingsOutputFormat.class);
+            job.setOutputKeyClass(Text.class);
+            job.setOutputValueClass(PostingList.class);
+
+            FileInputFormat.addInputPath(job, dump);
+            FileOutputFormat.setOutputPath(job, new Path(segment, INDEX_DIR));
+            if (!job.waitForCompletion(true)) {
+                return false;
+            }
+        }
+        writeSegmentSummary(fs, segment, pages);
+
+        if (segments.size() + 1 > conf.getInt(SEGMENTS_MAX, 8)) {
+            return compact(conf, index);
+        }
+        return true;
+    }
+
+    /**
+     * Merges all the segments to one with the number of the latest segment,
+     * returns false if the job failed
+    */
+    public static boolean compact(Configuration conf, Path index) throws Exception {
+        FileSystem fs = index.getFileSystem(conf);
+        List<Path> segments = listSegments(conf, index);
+        if (segments.size() < 2) {
+            return true;
+        }
+        Path latest = segments.get(segments.size() - 1);
+        Path compacted = new Path(index, "_compaction");
+        fs.delete(compacted, true);
+
+        Job job = new Job(conf, "incrementalindex.compaction");
+        job.setJarByClass(IncrementalIndex.class);
+        job.getConfiguration().set(INDEX, index.toString());
+        job.setInputFormatClass(PostingsInputFormat.class);
+        job.setMapperClass(MapperCompaction.class);
+        job.setReducerClass(ReducerCompaction.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(PostingList.class);
+        job.setOutputFormatClass(PostingsOutputFormat.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(PostingList.class);
+        for (Path segment : segments) {
+            if (fs.exists(new Path(segment, INDEX_DIR))) {
+                FileInputFormat.addInputPath(job, new Path(segment, INDEX_DIR));
+            }
+        }
+        FileOutputFormat.setOutputPath(job, new Path(compacted, INDEX_DIR));
+        if (!job.waitForCompletion(true)) {
+            return false;
+        }
+
+        // The pages of the latest segment without the tombstones: nothing is older
+        fs.rename(new Path(latest, PAGES_DIR), new Path(compacted, PAGES_DIR));
+        for (FileStatus status : fs.globStatus(new Path(compacted, PAGES_DIR + "/" + CHANGES_OUTPUT + "-*"))) {
+            fs.delete(status.getPath(), false);
+        }
+        fs.rename(new Path(latest, SEGMENT_SUMMARY), new Path(compacted, SEGMENT_SUMMARY));
+        for (Path segment : segments) {
+            fs.delete(segment, true);
+        }
+        return fs.rename(compacted, latest);
+    }
+
+    // The number of the pages of the dump under the key of the corpus summary
+    // (read by QueryIndex for IDF)
+    private static void writeSegmentSummary(FileSystem fs, Path segment, long pages) throws IOException {
+        Writer writer = new OutputStreamWriter(fs.create(new Path(segment, SEGMENT_SUMMARY), true),
+                                               Charsets.UTF_8);
+        try {
+            writer.write(CorpusStatistics.DOCUMENTS_KEY + "\t" + pages + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+
+        if (otherArgs.length == 2 && otherArgs[0].equals("-compact")) {
+            System.exit(compact(conf, new Path(otherArgs[1])) ? 0 : 1);
+        }
+        if (otherArgs.length != 2) {
+            System.err.println("Usage: incrementalindex <in> <index dir>");
+            System.err.println("       incrementalindex -compact <index dir>");
+            System.exit(2);
+        }
+
+        System.exit(update(conf, new Path(otherArgs[0]), new Path(otherArgs[1])) ? 0 : 1);
+    }
+}
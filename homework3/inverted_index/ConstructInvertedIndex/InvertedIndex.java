@@ -5,90 +5,87 @@
  *                                                                             
  * Input Data:  *.xml file (dump of wikiedia)                                  
  * Output Data: (word, [<docid1, TF-IDF1>, <docid2, TF-IDF2>, ..., <docidn, TF-IDFn> ])
+ *              or part-r-*.post, part-r-*.dict (-D invertedindex.output.format=binary, PostingsOutputFormat)
+ *
+ * The keys are partitioned by the word. With -D invertedindex.partitioner=total the
+ * reducers get the ranges of the words (TotalOrderPartitioner, the boundaries are
+ * sampled from the statistics of CorpusStatistics), so the part files one after
+ * another are sorted by the word.
+ *
+ * With -D invertedindex.term.ids=true the words are numbered before the job
+ * (TermIds), and the keys of the shuffle are the ids of the words.
 */
 
 package shad.homework3.task2;
 
 
+import java.io.BufferedReader;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.lang.Math;
 import java.lang.StringBuilder;
-import java.util.StringTokenizer;
-import java.util.TreeSet;
-import java.util.Vector;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import com.google.common.base.Charsets;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
 import org.apache.hadoop.util.GenericOptionsParser;
 
 
 public class InvertedIndex {    
-    
-    /**
-     * It contains the top20 high-frequency words of the document 
-     * Is used to exclude them from the index
-     * Top high-frequency words is determined by a separate MapReduce program
-    */
-    public static class HighFrequencyTop {
-        private TreeSet<String> mTop = new TreeSet<String>();
-        
-        public HighFrequencyTop() {
-        
-            String[] mHighFrequencyTop20 = {"Викиверситет","проект","Викиверситета","Ivan","Shmakov",
-                                            "страниц","может","слов","участник","которые","можно","Викиверсите",
-                                            "быть","праав","материал","wiki","2014","язык","Участник","User"};
-            
-            for (int i = 0; i < 20; ++i) {
-                mTop.add(mHighFrequencyTop20[i]);
-            }
-        }
-        
-        public boolean contains(String str) {
-            return mTop.contains(str);
-        }            
-    }                
 
-    /**
-     * Pair(term frequency, docid)
-     * For a vector, in which are stored the 20 most relevant articles for a particular word
-    */
-    public static class PairTfDocId {
-        private int mFirst;
-        private int mSecond;
+    // Side file of CorpusStatistics, the job is run first if it is not set
+    // (-D invertedindex.corpus.summary=<out>_stats/_corpus_summary)
+    public static final String CORPUS_SUMMARY = "invertedindex.corpus.summary";
 
-        public PairTfDocId() {}
+    // Maximal number of the postings of a term, the best by TF-IDF (-D invertedindex.postings.max=20)
+    public static final String POSTINGS_MAX = "invertedindex.postings.max";
 
-        public PairTfDocId(int first, int second) {
-            this.mFirst = first;
-            this.mSecond = second;
-        }
-        public void set(int first, int second) {
-            this.mFirst = first;
-            this.mSecond = second;
-        }
+    // Format of the index: text or binary (PostingsOutputFormat) (-D invertedindex.output.format=text)
+    public static final String OUTPUT_FORMAT = "invertedindex.output.format";
 
-        public int getFirst() {
-            return mFirst;
-        }
+    // Partitioner of the words: word (by hash) or total (by ranges) (-D invertedindex.partitioner=word)
+    public static final String PARTITIONER = "invertedindex.partitioner";
 
-        public int getSecond() {
-            return mSecond;
-        }
-    }
+    // Number of the sampled words for the ranges of total partitioner
+    // (-D invertedindex.partitioner.samples=100000)
+    public static final String PARTITIONER_SAMPLES = "invertedindex.partitioner.samples";
+
+    // Shuffle of the term ids instead of the words (TermIds), the partitioner is not used
+    // (-D invertedindex.term.ids=false)
+    public static final String TERM_IDS = "invertedindex.term.ids";
     
+    /**
+     * Key of the reducers of the index with tf of the current value
+    */
+    interface TfKey {
+        int getTf();
+    }
+
     /**
      * To use sorting reducer
     */
-    public static class WordTfKey implements WritableComparable<WordTfKey> {
+    public static class WordTfKey implements WritableComparable<WordTfKey>, TfKey {
         // Word
         private Text mFirst;
         // Term frequency
@@ -114,6 +111,11 @@ public class InvertedIndex {
         public IntWritable getSecond() {
             return mSecond;
         }  
+
+        @Override
+        public int getTf() {
+            return mSecond.get();
+        }
     
         @Override
         public void write(DataOutput out) throws IOException {
@@ -156,107 +158,313 @@ public class InvertedIndex {
             }
             return -mSecond.compareTo(tmp.mSecond);
         } 
+
+        /**
+         * The same order as compareTo() by the serialized keys:
+         * the bytes of the word (vint length + UTF-8), then tf (4 bytes)
+        */
+        public static class Comparator extends WritableComparator {
+
+            public Comparator() {
+                super(WordTfKey.class);
+            }
+
+            @Override
+            public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+                try {
+                    int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+                    int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+                    int length1 = readVInt(b1, s1);
+                    int length2 = readVInt(b2, s2);
+                    int cmp = compareBytes(b1, s1 + n1, length1, b2, s2 + n2, length2);
+                    if (cmp != 0) {
+                        return cmp;
+                    }
+                    // Term frequency by descending
+                    int tf1 = readInt(b1, s1 + n1 + length1);
+                    int tf2 = readInt(b2, s2 + n2 + length2);
+                    return tf1 > tf2 ? -1 : (tf1 == tf2 ? 0 : 1);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException(e);
+                }
+            }
+        }
+
+        /**
+         * Grouping by the word only: one reduce() call for all the postings of the word
+        */
+        public static class WordComparator extends WritableComparator {
+
+            public WordComparator() {
+                super(WordTfKey.class);
+            }
+
+            @Override
+            public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+                try {
+                    int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+                    int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+                    return compareBytes(b1, s1 + n1, readVInt(b1, s1), b2, s2 + n2, readVInt(b2, s2));
+                } catch (IOException e) {
+                    throw new IllegalArgumentException(e);
+                }
+            }
+
+            @Override
+            @SuppressWarnings("rawtypes")
+            public int compare(WritableComparable a, WritableComparable b) {
+                return ((WordTfKey) a).mFirst.compareTo(((WordTfKey) b).mFirst);
+            }
+        }
+
+        /**
+         * All the keys of the word go to one reducer whatever tf is
+        */
+        public static class WordPartitioner extends Partitioner<WordTfKey, IntWritable> {
+
+            @Override
+            public int getPartition(WordTfKey key, IntWritable value, int numPartitions) {
+                return (key.mFirst.hashCode() & Integer.MAX_VALUE) % numPartitions;
+            }
+        }
+
+        static {
+            WritableComparator.define(WordTfKey.class, new Comparator());
+        }
     }
 
     
     /**
-     * input:  key - docid; value - content
+     * input:  key - docid; value - page
      * output: key - (word, tf); value - docid
+     *
+     * The terms of the document are counted by one pass over its UTF-8 bytes,
+     * the stop words of the corpus (CorpusStatistics) are skipped
     */
     public static class MapperInvertedIndex
-            extends Mapper<Text, Text, WordTfKey, IntWritable> {
+            extends Mapper<IntWritable, WikiPage, WordTfKey, IntWritable> {
     
-        private HighFrequencyTop mTop = new HighFrequencyTop();
+        private TermCounter mTermCounter;
         private IntWritable mDocId = new IntWritable();
         private IntWritable mTermFrequency = new IntWritable();
         private Text mTerm = new Text();                         
-        private TreeSet<String> mProcessedTerms = new TreeSet();
         private WordTfKey mWordTfKey = new WordTfKey();
-         
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            mTermCounter = new TermCounter(CorpusStatistics.Summary.load(context).getStopWords());
+        }
         
-        public void map(Text key, Text value, Context context) 
+        public void map(IntWritable key, WikiPage value, Context context) 
                 throws IOException, InterruptedException {
                         
-            StringTokenizer itr = new StringTokenizer(value.toString());            
-            mProcessedTerms.clear();
-            
-            while (itr.hasMoreTokens()) {            
-                String term = itr.nextToken().replaceAll("\\p{Punct}", "");
-
-                if (term.length() < 4 || mProcessedTerms.contains(term) || mTop.contains(term)) {
-                    continue;
-                }
+            mTermCounter.count(value.getText());
 
-                mProcessedTerms.add(term);                
-                int tf = (value.toString() + "\0").split(term).length - 1;   
-
-                if (tf == 0) { 
-                    tf = 1;
-                }
-                
-                mDocId.set(Integer.parseInt(key.toString()));
-                mTerm.set(term.toLowerCase());
-                mTermFrequency.set(tf);                
+            mDocId.set(key.get());
+            for (int i = 0; i < mTermCounter.size(); ++i) {
+                mTermCounter.getTerm(i, mTerm);
+                mTermFrequency.set(mTermCounter.getFrequency(i));
 
                 mWordTfKey.set(mTerm, mTermFrequency);
                 // Send pair and docid
                 context.write(mWordTfKey, mDocId);
-            }           
+            }
         }
     }
     
     /**
      * input:  key - (word, tf); value - docid
      * output: (word, [<docid1, TF-IDF1>, <docid2, TF-IDF2>,..., <docidn, TF-IDFn> ]
+     *
+     * The keys are grouped by the word, so one reduce() call gets all the postings
+     * of the term; tf is read from the key while the values are iterated.
+     * All the postings are counted for the document frequency, the best
+     * invertedindex.postings.max of them by TF-IDF are written.
     */
     public static class ReducerInvertedIndex 
             extends Reducer<WordTfKey, IntWritable, Text, Text> {
         
-        private final int N = 20;
-        private int mCnt = 0;
-        private String mPreviousTerm = new String();
+        private TermPostings mPostings;
         private StringBuilder mResult = new StringBuilder();
-        private Vector<PairTfDocId> mProcessedTfId = new Vector<PairTfDocId>();        
+        private Text mKey = new Text();
+        private Text mValue = new Text();
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            mPostings = new TermPostings(context);
+        }
 
         public void reduce(WordTfKey key, Iterable<IntWritable> values, Context context)
                 throws IOException, InterruptedException {
             
-            // mCnt - count documents who have it word
-            if (!mPreviousTerm.equals(key.getFirst().toString())) {
-                // If not first time         
-                if (mCnt != 0) {
-                    // Total number of documents determined by a separate MapReduce program
-                    float idf = (float)Math.log(86.0F / (float)mCnt);
-                    float tf_idf = 0;                   
-
-                    mResult.append("[");
-
-                    for (PairTfDocId val : mProcessedTfId) {
-                        tf_idf = val.getFirst() * idf;
-                        mResult.append("<" + val.getSecond() + ", " + tf_idf + ">, ");
+            mPostings.collect(key, values);
+            mPostings.format(mResult);
+
+            mKey.set("(" + key.getFirst() + ",");
+            mValue.set(mResult.toString());
+            context.write(mKey, mValue);
+        }
+    }
+
+    /**
+     * input:  key - (word, tf); value - docid
+     * output: key - word; value - postings (the binary index, PostingsOutputFormat)
+     *
+     * The same postings as ReducerInvertedIndex
+    */
+    public static class ReducerInvertedIndexBinary 
+            extends Reducer<WordTfKey, IntWritable, Text, PostingList> {
+        
+        private TermPostings mPostings;
+        private PostingList mPostingList = new PostingList();
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            mPostings = new TermPostings(context);
+        }
+
+        public void reduce(WordTfKey key, Iterable<IntWritable> values, Context context)
+                throws IOException, InterruptedException {
+            
+            mPostings.collect(key, values);
+            mPostings.fill(mPostingList);
+            context.write(key.getFirst(), mPostingList);
+        }
+    }
+
+    /**
+     * Postings of a term in the reducers of the index (by the words and by the term ids):
+     * all of them are counted for the document frequency, the best
+     * invertedindex.postings.max of them by TF-IDF are kept
+    */
+    static class TermPostings {
+        // Total number of documents determined by CorpusStatistics
+        private final long mDocuments;
+        private final TopPostings mTop;
+        private long mDocumentFrequency;
+        private float mIdf;
+
+        TermPostings(JobContext context) throws IOException {
+            mDocuments = CorpusStatistics.Summary.load(context).getDocuments();
+            mTop = new TopPostings(context.getConfiguration().getInt(POSTINGS_MAX, 20));
+        }
+
+        // The values of one reduce() call, the key holds tf of the current value
+        void collect(TfKey key, Iterable<IntWritable> values) {
+            mDocumentFrequency = 0;
+            mTop.clear();
+            for (IntWritable val : values) {
+                ++mDocumentFrequency;
+                mTop.offer(val.get(), key.getTf());
+            }
+            mIdf = (float)Math.log((float)mDocuments / (float)mDocumentFrequency);
+            mTop.sort();
+        }
+
+        // [<docid1, TF-IDF1>, <docid2, TF-IDF2>,..., <docidn, TF-IDFn> ]) from the best
+        void format(StringBuilder result) {
+            result.setLength(0);
+            result.append("[");
+            for (int i = 0; i < mTop.size(); ++i) {
+                if (i > 0) {
+                    result.append(", ");
+                }
+                float tf_idf = mTop.getScore(i) * mIdf;
+                result.append("<").append(mTop.getDocId(i)).append(", ").append(tf_idf).append(">");
+            }
+            result.append("])");
+        }
+
+        void fill(PostingList postings) {
+            postings.clear();
+            postings.setDocumentFrequency(mDocumentFrequency);
+            for (int i = 0; i < mTop.size(); ++i) {
+                postings.add(mTop.getDocId(i), mTop.getScore(i) * mIdf);
+            }
+        }
+    }
+
+    /**
+     * Writes the boundaries of the ranges of the words for TotalOrderPartitioner,
+     * returns the number of the ranges (can be less than reducers for a small vocabulary)
+     *
+     * The words are sampled from the statistics (part-r-* of CorpusStatistics), the
+     * ranges get equal sums of the document frequencies - the numbers of the map
+     * output records of their words. The boundary (word, Integer.MAX_VALUE) is the first
+     * key of the word, so all the keys of the word are in the same range.
+    */
+    public static int writePartitionFile(Configuration conf, Path statistics, Path partitions,
+                                         int reducers) throws IOException {
+        int samples = conf.getInt(PARTITIONER_SAMPLES, 100000);
+        Text[] words = new Text[samples];
+        long[] frequencies = new long[samples];
+        int size = 0;
+        long seen = 0;
+
+        // Reservoir sample of the words
+        Random random = new Random(42);
+        FileSystem fs = statistics.getFileSystem(conf);
+        FileStatus[] files = fs.globStatus(new Path(statistics, "part-*"));
+        for (FileStatus status : files != null ? files : new FileStatus[0]) {
+            BufferedReader reader =
+                new BufferedReader(new InputStreamReader(fs.open(status.getPath()), Charsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    ++seen;
+                    long i = size < samples ? size++ : (long) (random.nextDouble() * seen);
+                    if (i < samples) {
+                        words[(int) i] = new Text(fields[0]);
+                        frequencies[(int) i] = Long.parseLong(fields[1]);
                     }
-                    mResult.deleteCharAt(mResult.length() - 1);
-                    mResult.deleteCharAt(mResult.length() - 1);
-                    mResult.append("])");
-                    
-                    context.write(new Text("(" + mPreviousTerm + ","), new Text(mResult.toString()));
-                    
-                    mResult.delete(0, mResult.length());
-                    mCnt = 0;                
-                    mProcessedTfId.clear();                    
-                }                
+                }
+            } finally {
+                reader.close();
             }
-            // Stores the first N documents 
-            for (IntWritable val : values) {
-                if (mCnt < N) {                  
-                    mProcessedTfId.add(new PairTfDocId(key.getSecond().get(), val.get()));
-                    ++mCnt;
-                } else {
-                    ++mCnt;
-                }               
+        }
+
+        // The summary can be copied without the statistics (get-result.sh keeps it only)
+        if (size == 0) {
+            throw new IOException("No statistics of CorpusStatistics (part-*) in " + statistics
+                                  + ", the total partitioner needs them beside the corpus summary");
+        }
+
+        // Words in the order of Text (as the sort of the keys)
+        Integer[] order = new Integer[size];
+        long total = 0;
+        for (int i = 0; i < size; ++i) {
+            order[i] = i;
+            total += frequencies[i];
+        }
+        final Text[] sorted = words;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return sorted[a].compareTo(sorted[b]);
             }
-            mPreviousTerm = key.getFirst().toString();
+        });
+
+        SequenceFile.Writer writer = SequenceFile.createWriter(conf,
+            SequenceFile.Writer.file(partitions),
+            SequenceFile.Writer.keyClass(WordTfKey.class),
+            SequenceFile.Writer.valueClass(NullWritable.class));
+        int ranges = 1;
+        try {
+            long sum = 0;
+            for (int i = 0; i < size && ranges < reducers; ++i) {
+                // The range is closed before the word, which is the first one of the next range
+                if (i > 0 && sum >= total * ranges / reducers) {
+                    writer.append(new WordTfKey(words[order[i]].toString(), Integer.MAX_VALUE),
+                                  NullWritable.get());
+                    ++ranges;
+                }
+                sum += frequencies[order[i]];
+            }
+        } finally {
+            writer.close();
         }
+        return ranges;
     }
 
     public static void main(String[] args) throws Exception {
@@ -275,14 +483,68 @@ public class InvertedIndex {
                  + "org.apache.hadoop.io.serializer.WritableSerialization");
         conf.set("mapreduce.output.textoutputformat.separator", " ");
         
+        // The statistics of the corpus are kept in <out>_stats
+        Path summary;
+        if (conf.get(CORPUS_SUMMARY) != null) {
+            summary = new Path(conf.get(CORPUS_SUMMARY));
+        } else {
+            summary = CorpusStatistics.runJob(new Configuration(conf), new Path(otherArgs[0]),
+                                              new Path(otherArgs[1] + "_stats"));
+            if (summary == null) {
+                System.exit(1);
+            }
+        }
+
         Job job = new Job(conf, "invertedindex");
-        job.setInputFormatClass(XmlInputFormat.class);
+        job.setInputFormatClass(WikiPageInputFormat.class);
         job.setJarByClass(InvertedIndex.class);
+        CorpusStatistics.Summary.addToJob(job, summary);
         
-        job.setMapperClass(MapperInvertedIndex.class);
-        job.setReducerClass(ReducerInvertedIndex.class);
-        
-        job.setMapOutputKeyClass(WordTfKey.class);
+        boolean binary = conf.get(OUTPUT_FORMAT, "text").equals("binary");
+        if (binary) {
+            job.setOutputFormatClass(PostingsOutputFormat.class);
+            job.setOutputKeyClass(Text.class);
+            job.setOutputValueClass(PostingList.class);
+        }
+
+        if (conf.getBoolean(TERM_IDS, false)) {
+            // The first phase: the ids of the words of the statistics
+            Path dictionary = TermIds.writeDictionary(job.getConfiguration(), summary.getParent(),
+                                                      new Path(otherArgs[1] + "_termids"));
+            TermIds.addToJob(job, dictionary);
+
+            job.setMapperClass(TermIds.MapperTermIds.class);
+            job.setPartitionerClass(TermIds.TermIdKey.IdPartitioner.class);
+            if (binary) {
+                job.setReducerClass(TermIds.ReducerTermIdsBinary.class);
+                // The words come in the order of the ids
+                job.getConfiguration().setBoolean(PostingsOutputFormat.SORTED, false);
+            } else {
+                job.setReducerClass(TermIds.ReducerTermIds.class);
+            }
+            job.setGroupingComparatorClass(TermIds.TermIdKey.IdComparator.class);
+            job.setMapOutputKeyClass(TermIds.TermIdKey.class);
+        } else {
+            job.setMapperClass(MapperInvertedIndex.class);
+            if (conf.get(PARTITIONER, "word").equals("total") && job.getNumReduceTasks() > 1) {
+                // The statistics are in the directory of the summary
+                Path partitions = new Path(otherArgs[1] + "_partitions");
+                job.setNumReduceTasks(writePartitionFile(job.getConfiguration(), summary.getParent(),
+                                                         partitions, job.getNumReduceTasks()));
+                TotalOrderPartitioner.setPartitionFile(job.getConfiguration(), partitions);
+                job.setPartitionerClass(TotalOrderPartitioner.class);
+            } else {
+                job.setPartitionerClass(WordTfKey.WordPartitioner.class);
+            }
+            if (binary) {
+                job.setReducerClass(ReducerInvertedIndexBinary.class);
+            } else {
+                job.setReducerClass(ReducerInvertedIndex.class);
+            }
+
+            job.setGroupingComparatorClass(WordTfKey.WordComparator.class);
+            job.setMapOutputKeyClass(WordTfKey.class);
+        }
         job.setMapOutputValueClass(IntWritable.class);
     
         FileInputFormat.addInputPath(job, new Path(otherArgs[0]));
@@ -0,0 +1,475 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * TermIds.java: Inverted index over the integer ids of the terms
+ *               (InvertedIndex -D invertedindex.term.ids=true)
+ *
+ * Input Data:  *.xml file (dump of wikiedia), the statistics of CorpusStatistics
+ * Output Data: the same index as InvertedIndex (text or binary)
+ *
+ * The first phase numbers the words of the statistics by the document frequency
+ * (the most frequent word is 0) and writes the side file <out>_termids/terms.dict:
+ * TermDictionary term -> id. The mappers find the ids of the terms in it and
+ * send (term id, tf) - docid, 12 bytes per posting instead of the word as Text.
+ * The reducers translate the ids of their partition back to the words.
+ *
+ * The keys are sorted by the ids, so the words of a part file are in the order
+ * of the frequency: the binary output sorts its dictionary on close.
+*/
+
+package shad.homework3.task2;
+
+import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+
+public class TermIds {
+
+    // Side file in the directory of the ids
+    public static final String DICTIONARY_FILE = "terms" + PostingsOutputFormat.DICTIONARY_EXTENSION;
+    // Name of the side file in the working directory of the tasks
+    public static final String DICTIONARY_LINK = "term_ids";
+
+    /**
+     * Pair(term id, tf), both of fixed width
+    */
+    public static class TermIdKey implements WritableComparable<TermIdKey>, InvertedIndex.TfKey {
+        private int mTermId;
+        private int mTf;
+
+        public void set(int termId, int tf) {
+            mTermId = termId;
+            mTf = tf;
+        }
+
+        public int getTermId() {
+            return mTermId;
+        }
+
+        @Override
+        public int getTf() {
+            return mTf;
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeInt(mTermId);
+            out.writeInt(mTf);
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            mTermId = in.readInt();
+            mTf = in.readInt();
+        }
+
+        // Distribution by the term id
+        @Override
+        public int hashCode() {
+            return mTermId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof TermIdKey) {
+                TermIdKey tmp = (TermIdKey) o;
+                return mTermId == tmp.mTermId && mTf == tmp.mTf;
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return mTermId + "\t" + mTf;
+        }
+
+        // Sort by term ids and by term frequency by descending
+        @Override
+        public int compareTo(TermIdKey tmp) {
+            if (mTermId != tmp.mTermId) {
+                return mTermId < tmp.mTermId ? -1 : 1;
+            }
+            return mTf > tmp.mTf ? -1 : (mTf == tmp.mTf ? 0 : 1);
+        }
+
+        /**
+         * The same order as compareTo() by the serialized keys (two ints)
+        */
+        public static class Comparator extends WritableComparator {
+
+            public Comparator() {
+                super(TermIdKey.class);
+            }
+
+            @Override
+            public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+                int id1 = readInt(b1, s1);
+                int id2 = readInt(b2, s2);
+                if (id1 != id2) {
+                    return id1 < id2 ? -1 : 1;
+                }
+                // Term frequency by descending
+                int tf1 = readInt(b1, s1 + 4);
+                int tf2 = readInt(b2, s2 + 4);
+                return tf1 > tf2 ? -1 : (tf1 == tf2 ? 0 : 1);
+            }
+        }
+
+        /**
+         * Grouping by the term id only: one reduce() call for all the postings of the term
+        */
+        public static class IdComparator extends WritableComparator {
+
+            public IdComparator() {
+                super(TermIdKey.class);
+            }
+
+            @Override
+            public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+                int id1 = readInt(b1, s1);
+                int id2 = readInt(b2, s2);
+                return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+            }
+
+            @Override
+            @SuppressWarnings("rawtypes")
+            public int compare(WritableComparable a, WritableComparable b) {
+                int id1 = ((TermIdKey) a).mTermId;
+                int id2 = ((TermIdKey) b).mTermId;
+                return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+            }
+        }
+
+        /**
+         * The ids go to the reducers round-robin, so every reducer gets
+         * the same share of the frequent terms (Terms relies on it)
+        */
+        public static class IdPartitioner extends Partitioner<TermIdKey, IntWritable> {
+
+            @Override
+            public int getPartition(TermIdKey key, IntWritable value, int numPartitions) {
+                return key.mTermId % numPartitions;
+            }
+        }
+
+        static {
+            WritableComparator.define(TermIdKey.class, new Comparator());
+        }
+    }
+
+    /**
+     * input:  key - docid; value - page
+     * output: key - (term id, tf); value - docid
+     *
+     * The terms are counted as by MapperInvertedIndex, the ids are found in the
+     * mapped side file, so the mapper keeps no table of the vocabulary
+    */
+    public static class MapperTermIds
+            extends Mapper<IntWritable, WikiPage, TermIdKey, IntWritable> {
+
+        private TermCounter mTermCounter;
+        private TermDictionary mDictionary;
+        private IntWritable mDocId = new IntWritable();
+        private Text mTerm = new Text();
+        private TermIdKey mTermIdKey = new TermIdKey();
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            mTermCounter = new TermCounter(CorpusStatistics.Summary.load(context).getStopWords());
+            mDictionary = new TermDictionary(load(context));
+        }
+
+        public void map(IntWritable key, WikiPage value, Context context)
+                throws IOException, InterruptedException {
+
+            mTermCounter.count(value.getText());
+
+            mDocId.set(key.get());
+            for (int i = 0; i < mTermCounter.size(); ++i) {
+                mTermCounter.getTerm(i, mTerm);
+                long termId = mDictionary.find(mTerm.getBytes(), mTerm.getLength());
+                if (termId < 0) {
+                    throw new IOException("No id of the term " + mTerm
+                                          + ": the statistics are not of this input");
+                }
+                mTermIdKey.set((int) termId, mTermCounter.getFrequency(i));
+                context.write(mTermIdKey, mDocId);
+            }
+        }
+    }
+
+    /**
+     * input:  key - (term id, tf); value - docid
+     * output: (word, [<docid1, TF-IDF1>, <docid2, TF-IDF2>,..., <docidn, TF-IDFn> ]
+     *
+     * The same postings as ReducerInvertedIndex
+    */
+    public static class ReducerTermIds
+            extends Reducer<TermIdKey, IntWritable, Text, Text> {
+
+        private Terms mTerms;
+        private InvertedIndex.TermPostings mPostings;
+        private StringBuilder mResult = new StringBuilder();
+        private Text mTerm = new Text();
+        private Text mKey = new Text();
+        private Text mValue = new Text();
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            mTerms = new Terms(context);
+            mPostings = new InvertedIndex.TermPostings(context);
+        }
+
+        public void reduce(TermIdKey key, Iterable<IntWritable> values, Context context)
+                throws IOException, InterruptedException {
+
+            mPostings.collect(key, values);
+            mPostings.format(mResult);
+
+            mTerms.get(key.getTermId(), mTerm);
+            mKey.set("(" + mTerm + ",");
+            mValue.set(mResult.toString());
+            context.write(mKey, mValue);
+        }
+    }
+
+    /**
+     * input:  key - (term id, tf); value - docid
+     * output: key - word; value - postings (the binary index, PostingsOutputFormat)
+     *
+     * The same postings as ReducerInvertedIndexBinary
+    */
+    public static class ReducerTermIdsBinary
+            extends Reducer<TermIdKey, IntWritable, Text, PostingList> {
+
+        private Terms mTerms;
+        private InvertedIndex.TermPostings mPostings;
+        private PostingList mPostingList = new PostingList();
+        private Text mTerm = new Text();
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            mTerms = new Terms(context);
+            mPostings = new InvertedIndex.TermPostings(context);
+        }
+
+        public void reduce(TermIdKey key, Iterable<IntWritable> values, Context context)
+                throws IOException, InterruptedException {
+
+            mPostings.collect(key, values);
+            mPostings.fill(mPostingList);
+            mTerms.get(key.getTermId(), mTerm);
+            context.write(mTerm, mPostingList);
+        }
+    }
+
+    /**
+     * The words of the ids of one reducer (IdPartitioner: id % reducers == partition),
+     * the bytes of the words one after another by id / reducers
+    */
+    private static class Terms {
+        private final int mPartitions;
+        private byte[] mBytes = new byte[64 * 1024];
+        private final int[] mStarts;
+        private final int[] mLengths;
+
+        Terms(Reducer<?, ?, ?, ?>.Context context) throws IOException {
+            int partition = context.getTaskAttemptID().getTaskID().getId();
+            mPartitions = context.getNumReduceTasks();
+            TermDictionary dictionary = new TermDictionary(load(context));
+            int size = (dictionary.size() + mPartitions - 1) / mPartitions;
+            mStarts = new int[size];
+            mLengths = new int[size];
+
+            int length = 0;
+            TermDictionary.Cursor cursor = dictionary.iterator();
+            while (cursor.next()) {
+                long termId = cursor.getOffset();
+                if (termId % mPartitions != partition) {
+                    continue;
+                }
+                if (length + cursor.getLength() > mBytes.length) {
+                    mBytes = Arrays.copyOf(mBytes, Math.max(2 * mBytes.length, length + cursor.getLength()));
+                }
+                System.arraycopy(cursor.getTerm(), 0, mBytes, length, cursor.getLength());
+                int i = (int) (termId / mPartitions);
+                mStarts[i] = length;
+                mLengths[i] = cursor.getLength();
+                length += cursor.getLength();
+            }
+        }
+
+        void get(int termId, Text term) {
+            int i = termId / mPartitions;
+            term.set(mBytes, mStarts[i], mLengths[i]);
+        }
+    }
+
+    /**
+     * Writes the side file: the words of the statistics (part-r-* of CorpusStatistics)
+     * numbered by the document frequency by descending, returns its path
+    */
+    public static Path writeDictionary(Configuration conf, Path statistics, Path output)
+            throws IOException {
+        Text[] words = new Text[1024];
+        long[] frequencies = new long[1024];
+        int size = 0;
+        FileSystem fs = statistics.getFileSystem(conf);
+        FileStatus[] files = fs.globStatus(new Path(statistics, "part-*"));
+        for (FileStatus status : files != null ? files : new FileStatus[0]) {
+            BufferedReader reader =
+                new BufferedReader(new InputStreamReader(fs.open(status.getPath()), Charsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    if (size == words.length) {
+                        words = Arrays.copyOf(words, 2 * size);
+                        frequencies = Arrays.copyOf(frequencies, 2 * size);
+                    }
+                    words[size] = new Text(fields[0]);
+                    frequencies[size] = Long.parseLong(fields[1]);
+                    ++size;
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        // Without the statistics every term of the mappers would have no id
+        if (size == 0) {
+            throw new IOException("No statistics of CorpusStatistics (part-*) in " + statistics
+                                  + ", the term ids need them beside the corpus summary");
+        }
+
+        // The ids by the frequency, the equal frequencies by the word
+        final Text[] sortedWords = words;
+        final long[] sortedFrequencies = frequencies;
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (sortedFrequencies[a] != sortedFrequencies[b]) {
+                    return sortedFrequencies[a] > sortedFrequencies[b] ? -1 : 1;
+                }
+                return sortedWords[a].compareTo(sortedWords[b]);
+            }
+        });
+        int[] ids = new int[size];
+        for (int id = 0; id < size; ++id) {
+            ids[order[id]] = id;
+        }
+
+        // The dictionary is written in the order of the words
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return sortedWords[a].compareTo(sortedWords[b]);
+            }
+        });
+        Path dictionary = new Path(output, DICTIONARY_FILE);
+        TermDictionary.Writer writer = new TermDictionary.Writer(
+            dictionary.getFileSystem(conf).create(dictionary, true),
+            PostingsOutputFormat.DICTIONARY_MAGIC, PostingsOutputFormat.VERSION);
+        try {
+            for (int i : order) {
+                writer.add(words[i].getBytes(), words[i].getLength(), ids[i]);
+            }
+        } finally {
+            writer.close();
+        }
+        return dictionary;
+    }
+
+    /**
+     * Adds the side file to the distributed cache of the job
+    */
+    public static void addToJob(Job job, Path dictionary) throws IOException {
+        FileSystem fs = dictionary.getFileSystem(job.getConfiguration());
+        URI uri = fs.makeQualified(dictionary).toUri();
+        job.addCacheFile(URI.create(uri + "#" + DICTIONARY_LINK));
+    }
+
+    /**
+     * Maps the side file added to the job by addToJob(), the dictionary is searched in place
+    */
+    static ByteBuffer load(JobContext context) throws IOException {
+        // The local copy of the distributed cache
+        File local = new File(DICTIONARY_LINK);
+        if (local.exists()) {
+            return map(local);
+        }
+        URI[] files = context.getCacheFiles();
+        if (files != null) {
+            for (URI uri : files) {
+                if (DICTIONARY_LINK.equals(uri.getFragment())) {
+                    // No link (the local job runner): the file itself if it is local
+                    Path path = new Path(uri.getPath());
+                    FileSystem fs = FileSystem.get(uri, context.getConfiguration());
+                    if ("file".equals(fs.getUri().getScheme())) {
+                        return map(new File(path.toUri().getPath()));
+                    }
+                    return read(fs.open(path));
+                }
+            }
+        }
+        throw new IOException("No " + DICTIONARY_LINK + " in the distributed cache");
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            if (in.length() > Integer.MAX_VALUE) {
+                throw new IOException("The file is larger than 2GB: " + file);
+            }
+            // The mapping stays valid after the file is closed
+            return checkHeader(in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length()));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static ByteBuffer read(InputStream in) throws IOException {
+        try {
+            return checkHeader(ByteBuffer.wrap(ByteStreams.toByteArray(in)));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static ByteBuffer checkHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < 5 || buffer.getInt(0) != PostingsOutputFormat.DICTIONARY_MAGIC
+                || buffer.get(4) != PostingsOutputFormat.VERSION) {
+            throw new IOException("Not a dictionary of the version " + PostingsOutputFormat.VERSION);
+        }
+        return buffer;
+    }
+}
@@ -2,5 +2,5 @@
 
 JARS=`yarn classpath`
 
-javac -classpath $JARS -d classes InvertedIndex.java XmlInputFormat.java
+javac -classpath $JARS -d classes InvertedIndex.java CorpusStatistics.java IncrementalIndex.java TermIds.java ../common/*.java
 jar -cvf invertedindex.jar -C classes .
\ No newline at end of file
@@ -1,4 +1,8 @@
 #!/bin/sh
 
-hdfs dfs -get ./inverted_index/output/part* ./inverted_index_result.txt
-hdfs dfs -rm -r ./inverted_index/output/
\ No newline at end of file
+hdfs dfs -getmerge ./inverted_index/output/ ./inverted_index_result.txt
+hdfs dfs -get ./inverted_index/output_stats/_corpus_summary ./corpus_summary.txt
+hdfs dfs -rm -r ./inverted_index/output/
+hdfs dfs -rm -r ./inverted_index/output_stats/
+hdfs dfs -rm -r ./inverted_index/output_partitions
+hdfs dfs -rm -r ./inverted_index/output_termids
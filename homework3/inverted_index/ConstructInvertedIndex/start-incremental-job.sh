@@ -0,0 +1,4 @@
+#!/bin/sh
+
+# The next segment of ./inverted_index/index by the new dump
+hadoop jar ./invertedindex.jar shad.homework3.task2.IncrementalIndex -D mapreduce.job.reduces=16 ./inverted_index/debug.xml ./inverted_index/index
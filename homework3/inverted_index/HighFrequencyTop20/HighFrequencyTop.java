@@ -12,8 +12,6 @@ package shad.homework3.task2;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.StringTokenizer;
-import java.util.TreeSet;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -36,41 +34,30 @@ import org.apache.hadoop.util.GenericOptionsParser;
 public class HighFrequencyTop {
 
     /**
-     * Input:  key - docid; value - content
+     * Input:  key - docid; value - page
      * Output: key - word; value - term frequency
+     *
+     * One pass over the UTF-8 bytes of the document (TermCounter): the markup
+     * and the punctuation are skipped, the terms are in lower case
     */
     public static class MapperStageOne
-            extends Mapper<Text, Text, Text, IntWritable> {
+            extends Mapper<IntWritable, WikiPage, Text, IntWritable> {
     
         private IntWritable mTermFrequency = new IntWritable();
         private Text mTerm = new Text();
-         
-        private TreeSet<String> mProcessedTerms = new TreeSet();
+        private TermCounter mTermCounter = new TermCounter();
         
-        public void map(Text key, Text value, Context context) 
+        public void map(IntWritable key, WikiPage value, Context context) 
                 throws IOException, InterruptedException {
                         
-            StringTokenizer itr = new StringTokenizer(value.toString());
-            
-            mProcessedTerms.clear();
-            
-            while (itr.hasMoreTokens()) {
-                String term = itr.nextToken().replaceAll("\\p{Punct}", "");
-                if (term.length() < 4 || mProcessedTerms.contains(term)) {
-                    continue;
-                }
-                mProcessedTerms.add(term);
-                
-                int tf = (value.toString() + "\0").split(term).length - 1;
-                if (tf == 0) {
-                    tf = 1;
-                }
-                
-                mTerm.set(term);
-                mTermFrequency.set(tf);                
+            mTermCounter.count(value.getText());
+
+            for (int i = 0; i < mTermCounter.size(); ++i) {
+                mTermCounter.getTerm(i, mTerm);
+                mTermFrequency.set(mTermCounter.getFrequency(i));
     
                 context.write(mTerm, mTermFrequency);
-            }         
+            }
         }
     }
     
@@ -215,7 +202,7 @@ public class HighFrequencyTop {
         jobStageTwo.setReducerClass(ReducerStageTwo.class);
 
         // Input/Output
-        jobStageOne.setInputFormatClass(XmlInputFormat.class);
+        jobStageOne.setInputFormatClass(WikiPageInputFormat.class);
         jobStageOne.setOutputFormatClass(TextOutputFormat.class);
     
         jobStageTwo.setInputFormatClass(KeyValueTextInputFormat.class);
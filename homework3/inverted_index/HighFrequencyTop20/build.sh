@@ -2,5 +2,5 @@
 
 JARS=`yarn classpath`
 
-javac -classpath $JARS -d classes HighFrequencyTop.java XmlInputFormat.java
+javac -classpath $JARS -d classes HighFrequencyTop.java ../common/*.java
 jar -cvf highfrequencytop.jar -C classes .
\ No newline at end of file
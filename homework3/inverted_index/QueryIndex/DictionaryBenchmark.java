@@ -0,0 +1,195 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * DictionaryBenchmark.java: TermDictionary against HashMap<String, Long>
+ *
+ * Input Data:  <work dir> [number of terms] [number of lookups]
+ * Output Data: <dictionary>[Tab]footprint, p50 and p99 latency of the lookups (nanoseconds)
+ *
+ * The terms are made of the syllables (so they share the prefixes as the words
+ * do), the dictionary is written by TermDictionary.Writer to the work directory
+ * and mapped. The footprint of HashMap is the growth of the used heap, of
+ * TermDictionary - the size of the file (it is in the page cache, not in the heap).
+ * The lookups are the terms of the dictionary (hits) and the terms with a changed
+ * letter (mostly misses); the prefix lookup is done by TermDictionary only.
+*/
+
+package shad.homework3.task2;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import com.google.common.base.Charsets;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+public class DictionaryBenchmark {
+
+    private static final String[] SYLLABLES = {
+        "ab", "al", "an", "ar", "ba", "be", "ca", "co", "de", "di", "el", "en", "er", "es",
+        "ga", "ic", "in", "io", "is", "la", "le", "li", "ma", "me", "mo", "na", "ne", "no",
+        "on", "or", "pa", "pe", "ra", "re", "ri", "ro", "sa", "se", "st", "ta", "te", "ti",
+        "to", "tr", "un", "ur", "va", "ve"
+    };
+    private static final int PREFIX_LOOKUP_LIMIT = 10;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: dictionarybenchmark <work dir> [terms] [lookups]");
+            System.exit(2);
+        }
+        File directory = new File(args[0]);
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+
+        Random random = new Random(42);
+        TreeSet<String> sorted = new TreeSet<String>();
+        while (sorted.size() < size) {
+            sorted.add(term(random));
+        }
+        // Sorted as Text, by the UTF-8 bytes (the terms are ASCII)
+        String[] terms = sorted.toArray(new String[sorted.size()]);
+        sorted = null;
+        // Offsets as of the posting lists of 20 bytes on average
+        long[] offsets = new long[size];
+        for (int i = 1; i < size; ++i) {
+            offsets[i] = offsets[i - 1] + 5 + random.nextInt(30);
+        }
+
+        String[] workload = new String[lookups];
+        for (int i = 0; i < lookups; ++i) {
+            String term = terms[random.nextInt(size)];
+            if ((i & 1) == 1) {
+                char[] chars = term.toCharArray();
+                chars[random.nextInt(chars.length)] = (char) ('a' + random.nextInt(26));
+                term = new String(chars);
+            }
+            workload[i] = term;
+        }
+
+        // HashMap
+        long before = usedMemory();
+        Map<String, Long> map = new HashMap<String, Long>();
+        for (int i = 0; i < size; ++i) {
+            // A copy of the chars, new String(String) shares them with the term
+            map.put(new String(terms[i].toCharArray()), offsets[i]);
+        }
+        long footprint = usedMemory() - before;
+        long[] latencies = new long[lookups];
+        long found = 0;
+        for (int pass = 0; pass < 2; ++pass) {
+            // The first pass is the warm up
+            for (int i = 0; i < lookups; ++i) {
+                long t = System.nanoTime();
+                Long offset = map.get(workload[i]);
+                latencies[i] = System.nanoTime() - t;
+                found += offset != null ? 1 : 0;
+            }
+        }
+        report("HashMap", footprint, latencies, found / 2);
+        map = null;
+
+        // TermDictionary
+        FileSystem fs = FileSystem.getLocal(new Configuration()).getRaw();
+        Path path = new Path(directory.getPath(), "terms" + PostingsOutputFormat.DICTIONARY_EXTENSION);
+        fs.mkdirs(path.getParent());
+        long start = System.nanoTime();
+        TermDictionary.Writer writer = new TermDictionary.Writer(
+            fs.create(path, true), PostingsOutputFormat.DICTIONARY_MAGIC, PostingsOutputFormat.VERSION);
+        for (int i = 0; i < size; ++i) {
+            byte[] bytes = terms[i].getBytes(Charsets.UTF_8);
+            writer.add(bytes, bytes.length, offsets[i]);
+        }
+        writer.close();
+        System.out.println("write\t" + size + " terms, "
+                           + (System.nanoTime() - start) / 1000000 + " ms");
+
+        before = usedMemory();
+        TermDictionary dictionary = new TermDictionary(map(new File(path.toString())));
+        footprint = Math.max(usedMemory() - before, 0);
+        byte[][] keys = new byte[lookups][];
+        for (int i = 0; i < lookups; ++i) {
+            keys[i] = workload[i].getBytes(Charsets.UTF_8);
+        }
+        found = 0;
+        for (int pass = 0; pass < 2; ++pass) {
+            for (int i = 0; i < lookups; ++i) {
+                long t = System.nanoTime();
+                long offset = dictionary.find(keys[i], keys[i].length);
+                latencies[i] = System.nanoTime() - t;
+                found += offset >= 0 ? 1 : 0;
+            }
+        }
+        report("TermDictionary", footprint, latencies, found / 2);
+        System.out.println("TermDictionary\tfile " + new File(path.toString()).length() / 1024 + " KB"
+                           + " (the terms are " + textLength(terms) / 1024 + " KB)");
+
+        // Prefix lookup: the first terms of the prefix of 3 letters
+        long matched = 0;
+        for (int pass = 0; pass < 2; ++pass) {
+            for (int i = 0; i < lookups; ++i) {
+                int length = Math.min(3, keys[i].length);
+                long t = System.nanoTime();
+                TermDictionary.Cursor cursor = dictionary.seek(keys[i], length);
+                for (int n = 0; n < PREFIX_LOOKUP_LIMIT && cursor.next()
+                         && cursor.startsWith(keys[i], length); ++n) {
+                    ++matched;
+                }
+                latencies[i] = System.nanoTime() - t;
+            }
+        }
+        report("prefix " + PREFIX_LOOKUP_LIMIT, -1, latencies, matched / 2);
+    }
+
+    // 2..6 syllables
+    private static String term(Random random) {
+        StringBuilder term = new StringBuilder();
+        int syllables = 2 + random.nextInt(5);
+        for (int i = 0; i < syllables; ++i) {
+            term.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return term.toString();
+    }
+
+    private static long textLength(String[] terms) {
+        long length = 0;
+        for (String term : terms) {
+            length += term.length();
+        }
+        return length;
+    }
+
+    private static void report(String name, long footprint, long[] latencies, long found) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        System.out.println(name + "\t"
+                           + (footprint >= 0 ? "heap " + footprint / 1024 + " KB, " : "")
+                           + "p50 " + sorted[sorted.length / 2]
+                           + ", p99 " + sorted[(int) (sorted.length * 0.99)] + " ns"
+                           + " (found " + found + ")");
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static ByteBuffer map(File file) throws Exception {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            return in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * QueryBenchmark.java: Throughput and latency of QueryIndex
+ *
+ * Input Data:  <work dir> [number of documents] [number of queries]
+ * Output Data: <query type>[Tab]queries/s, p50, p99 and max latency (microseconds)
+ *
+ * A corpus with Zipf distribution of the words is generated, its index is
+ * written by PostingsOutputFormat (all the postings, no cap) to the work
+ * directory. The queries of 1, 2 and 3 words are run after the warm up,
+ * every query is timed separately.
+*/
+
+package shad.homework3.task2;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+
+public class QueryBenchmark {
+
+    private static final int VOCABULARY = 50000;
+    private static final int PARTS = 4;
+    private static final int TOP_K = 10;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: querybenchmark <work dir> [documents] [queries]");
+            System.exit(2);
+        }
+        File directory = new File(args[0]);
+        int documents = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+        Random random = new Random(42);
+        double[] zipf = zipfDistribution(VOCABULARY);
+
+        long start = System.nanoTime();
+        writeIndex(directory, documents, zipf, random);
+        System.out.println("index\t" + documents + " documents, "
+                           + (System.nanoTime() - start) / 1000000 + " ms");
+
+        QueryIndex index = new QueryIndex(directory);
+        String[] modes = {"1 word", "2 words and", "3 words and", "2 words or"};
+        for (String mode : modes) {
+            int words = mode.charAt(0) - '0';
+            boolean conjunctive = !mode.endsWith("or");
+            // Frequent words, so the intersections are not empty
+            String[] workload = new String[queries];
+            for (int q = 0; q < queries; ++q) {
+                StringBuilder query = new StringBuilder();
+                for (int w = 0; w < words; ++w) {
+                    query.append(term(sample(zipf, random) % 2000)).append(' ');
+                }
+                workload[q] = query.toString();
+            }
+
+            // Warm up
+            long hits = 0;
+            for (int q = 0; q < queries / 2; ++q) {
+                hits += index.search(workload[q], TOP_K, conjunctive).size();
+            }
+
+            long[] latencies = new long[queries];
+            long total = System.nanoTime();
+            for (int q = 0; q < queries; ++q) {
+                long t = System.nanoTime();
+                hits += index.search(workload[q], TOP_K, conjunctive).size();
+                latencies[q] = System.nanoTime() - t;
+            }
+            total = System.nanoTime() - total;
+            Arrays.sort(latencies);
+
+            System.out.println(mode + "\t"
+                               + String.format("%.0f", queries / (total / 1e9)) + " queries/s"
+                               + ", p50 " + latencies[queries / 2] / 1000
+                               + ", p99 " + latencies[(int) (queries * 0.99)] / 1000
+                               + ", max " + latencies[queries - 1] / 1000 + " us"
+                               + " (hits " + hits + ")");
+        }
+    }
+
+    // Terms of the index are the lower case words of 4 and more letters
+    private static String term(int rank) {
+        return "word" + rank;
+    }
+
+    // Cumulative Zipf distribution with s = 1
+    private static double[] zipfDistribution(int n) {
+        double[] cdf = new double[n];
+        double sum = 0.0;
+        for (int i = 0; i < n; ++i) {
+            sum += 1.0 / (i + 1);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; ++i) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    private static int sample(double[] cdf, Random random) {
+        int i = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(i >= 0 ? i : -i - 1, cdf.length - 1);
+    }
+
+    //
+    // Documents of 50..300 words, the postings of every word are collected by
+    // docid, then the words are written to the parts by hash (as HashPartitioner)
+    // in the sorted order
+    //
+    private static void writeIndex(File directory, int documents, double[] zipf, Random random)
+            throws Exception {
+        int[][] docIds = new int[VOCABULARY][];
+        int[][] tfs = new int[VOCABULARY][];
+        int[] sizes = new int[VOCABULARY];
+        int[] counts = new int[VOCABULARY];
+        int[] touched = new int[300];
+
+        for (int doc = 0; doc < documents; ++doc) {
+            int length = 50 + random.nextInt(251);
+            int distinct = 0;
+            for (int i = 0; i < length; ++i) {
+                int word = sample(zipf, random);
+                if (counts[word]++ == 0) {
+                    touched[distinct++] = word;
+                }
+            }
+            for (int i = 0; i < distinct; ++i) {
+                int word = touched[i];
+                if (docIds[word] == null) {
+                    docIds[word] = new int[4];
+                    tfs[word] = new int[4];
+                } else if (sizes[word] == docIds[word].length) {
+                    docIds[word] = Arrays.copyOf(docIds[word], 2 * sizes[word]);
+                    tfs[word] = Arrays.copyOf(tfs[word], 2 * sizes[word]);
+                }
+                docIds[word][sizes[word]] = doc;
+                tfs[word][sizes[word]] = counts[word];
+                ++sizes[word];
+                counts[word] = 0;
+            }
+        }
+
+        final String[] terms = new String[VOCABULARY];
+        Integer[] order = new Integer[VOCABULARY];
+        for (int i = 0; i < VOCABULARY; ++i) {
+            terms[i] = term(i);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return terms[a].compareTo(terms[b]);
+            }
+        });
+
+        Configuration conf = new Configuration();
+        FileSystem fs = FileSystem.getLocal(conf).getRaw();
+        fs.delete(new Path(directory.getPath()), true);
+        PostingsOutputFormat.PostingsRecordWriter[] writers =
+            new PostingsOutputFormat.PostingsRecordWriter[PARTS];
+        for (int p = 0; p < PARTS; ++p) {
+            Path base = new Path(directory.getPath(), String.format("part-r-%05d", p));
+            writers[p] = new PostingsOutputFormat.PostingsRecordWriter(
+                fs.create(base.suffix(PostingsOutputFormat.POSTINGS_EXTENSION)),
+                fs.create(base.suffix(PostingsOutputFormat.DICTIONARY_EXTENSION)));
+        }
+
+        Text term = new Text();
+        PostingList postings = new PostingList();
+        for (int word : order) {
+            if (sizes[word] == 0) {
+                continue;
+            }
+            float idf = (float) Math.log((float) documents / (float) sizes[word]);
+            postings.clear();
+            postings.setDocumentFrequency(sizes[word]);
+            for (int i = 0; i < sizes[word]; ++i) {
+                postings.add(docIds[word][i], tfs[word][i] * idf);
+            }
+            term.set(terms[word]);
+            writers[(term.hashCode() & Integer.MAX_VALUE) % PARTS].write(term, postings);
+        }
+        for (PostingsOutputFormat.PostingsRecordWriter writer : writers) {
+            writer.close(null);
+        }
+    }
+}
@@ -0,0 +1,699 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * QueryIndex.java: Ranked queries over the binary inverted index
+ *                  (InvertedIndex -D invertedindex.output.format=binary)
+ *
+ * Input Data:  local directory with part-r-*.post and part-r-*.dict, words of the query
+ * Output Data: <docid>[Tab]<score>  top k documents by the sum of TF-IDF of the words
+ *
+ * The files are mapped to the memory, the dictionary (TermDictionary) is
+ * searched in place. By default a document has to contain all the words
+ * (the posting lists are intersected with the skip pointers), with -or any of them.
+ * The stop words of the query are dropped as by the index, they are read from
+ * the summary of CorpusStatistics copied to the directory (_corpus_summary).
+ *
+ * The index of IncrementalIndex (segment-* directories) is read as one index:
+ * the postings of the pages changed or deleted by a later segment are skipped,
+ * the score tf is multiplied by IDF of the term computed over all the segments,
+ * the stop words are of its statistics/_corpus_summary.
+*/
+
+package shad.homework3.task2;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import com.google.common.base.Charsets;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+public class QueryIndex {
+
+    // The layout of IncrementalIndex
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_INDEX = "index";
+    private static final String SEGMENT_PAGES = "pages";
+    private static final String SEGMENT_SUMMARY = "_segment_summary";
+    private static final String STATISTICS_DIR = "statistics";
+    // The side file of CorpusStatistics: the stop words and the number of documents
+    private static final String CORPUS_SUMMARY = "_corpus_summary";
+    // Key of the number of documents in the corpus and the segment summaries
+    private static final String DOCUMENTS_KEY = "#documents";
+
+    // From the oldest to the newest, one segment for the index of InvertedIndex
+    private final List<Segment> mSegments = new ArrayList<Segment>();
+    // Segments of IncrementalIndex: the scores are tf, IDF is computed by the query
+    private final boolean mIncremental;
+    private long mDocuments = 0;
+    // The words are not in the index, empty without the corpus summary
+    private final Set<String> mStopWords = new HashSet<String>();
+
+    public QueryIndex(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("No directory " + directory);
+        }
+        Arrays.sort(files);
+        List<File> segments = new ArrayList<File>();
+        for (File file : files) {
+            if (file.isDirectory() && file.getName().startsWith(SEGMENT_PREFIX)) {
+                segments.add(file);
+            }
+        }
+        mIncremental = !segments.isEmpty();
+        File summary = mIncremental ? new File(new File(directory, STATISTICS_DIR), CORPUS_SUMMARY)
+                                    : new File(directory, CORPUS_SUMMARY);
+        if (summary.exists()) {
+            readSummary(summary, mStopWords);
+        }
+
+        if (!mIncremental) {
+            mSegments.add(new Segment(directory));
+        } else {
+            // The pages changed or deleted by the later segments are dead in the segment
+            BitSet tombstones = new BitSet();
+            Segment[] loaded = new Segment[segments.size()];
+            for (int i = segments.size() - 1; i >= 0; --i) {
+                File segment = segments.get(i);
+                loaded[i] = new Segment(new File(segment, SEGMENT_INDEX));
+                loaded[i].mDead = tombstones.isEmpty() ? null : (BitSet) tombstones.clone();
+                readTombstones(new File(segment, SEGMENT_PAGES), tombstones);
+            }
+            mSegments.addAll(Arrays.asList(loaded));
+            mDocuments = readSummary(new File(segments.get(segments.size() - 1), SEGMENT_SUMMARY),
+                                     new HashSet<String>());
+        }
+        if (size() == 0 && !mIncremental) {
+            throw new IOException("No " + PostingsOutputFormat.DICTIONARY_EXTENSION + " files in " + directory);
+        }
+    }
+
+    public Set<String> getStopWords() {
+        return mStopWords;
+    }
+
+    // Number of the terms in the index (of all the segments)
+    public int size() {
+        int size = 0;
+        for (Segment segment : mSegments) {
+            for (Part part : segment.mParts) {
+                size += part.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Cursor over the postings of the term or null if there is no term
+    */
+    public PostingCursor open(String term) {
+        byte[] bytes = term.getBytes(Charsets.UTF_8);
+        return open(bytes, bytes.length);
+    }
+
+    private PostingCursor open(byte[] bytes, int length) {
+        List<ListCursor> cursors = new ArrayList<ListCursor>();
+        long documentFrequency = 0;
+        for (Segment segment : mSegments) {
+            // The term is in one of the parts of the segment
+            for (Part part : segment.mParts) {
+                long offset = part.find(bytes, length);
+                if (offset >= 0) {
+                    ListCursor cursor = new ListCursor(part.mPostings, (int) offset, segment.mDead);
+                    documentFrequency += cursor.getDocumentFrequency();
+                    cursors.add(cursor);
+                    break;
+                }
+            }
+        }
+        if (cursors.isEmpty()) {
+            return null;
+        }
+        if (mIncremental) {
+            // The dead postings are counted until the compaction
+            float idf = (float) Math.log((float) mDocuments / (float) documentFrequency);
+            for (ListCursor cursor : cursors) {
+                cursor.mWeight = Math.max(idf, 0.0F);
+            }
+        }
+        if (cursors.size() == 1) {
+            return cursors.get(0);
+        }
+        return new MergedCursor(cursors.toArray(new ListCursor[cursors.size()]));
+    }
+
+    /**
+     * At most limit terms of the index starting with the prefix, by ascending
+    */
+    public List<String> terms(String prefix, int limit) {
+        List<String> result = new ArrayList<String>(limit);
+        // The prefix is normalized as the terms of the index, the terms have no delimiters
+        WikiTokenizer tokenizer = new WikiTokenizer();
+        tokenizer.reset(new Text(prefix));
+        if (!tokenizer.next()) {
+            return result;
+        }
+        byte[] bytes = Arrays.copyOf(tokenizer.getBytes(), tokenizer.getLength());
+        if (tokenizer.next()) {
+            return result;
+        }
+        // Every part gives its first limit terms, the same term can be in several segments
+        TreeSet<String> terms = new TreeSet<String>();
+        for (Segment segment : mSegments) {
+            for (Part part : segment.mParts) {
+                TermDictionary.Cursor cursor = part.mDictionary.seek(bytes, bytes.length);
+                for (int n = 0; n < limit && cursor.next() && cursor.startsWith(bytes, bytes.length); ++n) {
+                    terms.add(cursor.getTermString());
+                }
+            }
+        }
+        for (String term : terms) {
+            if (result.size() == limit) {
+                break;
+            }
+            result.add(term);
+        }
+        return result;
+    }
+
+    /**
+     * Top k documents by the sum of the scores of the words
+     * conjunctive: the documents with all the words, otherwise with any of them
+    */
+    public TopPostings search(String query, int k, boolean conjunctive) {
+        TopPostings top = new TopPostings(k);
+
+        // The words are normalized as the terms of the index
+        TermCounter counter = new TermCounter(mStopWords);
+        counter.count(query);
+        Text term = new Text();
+        List<PostingCursor> cursors = new ArrayList<PostingCursor>();
+        for (int i = 0; i < counter.size(); ++i) {
+            counter.getTerm(i, term);
+            PostingCursor cursor = open(term.getBytes(), term.getLength());
+            if (cursor != null) {
+                cursors.add(cursor);
+            } else if (conjunctive) {
+                return top;
+            }
+        }
+        if (cursors.isEmpty()) {
+            return top;
+        }
+
+        if (conjunctive) {
+            intersect(cursors, top);
+        } else {
+            unite(cursors, top);
+        }
+        top.sort();
+        return top;
+    }
+
+    //
+    // The shortest list leads, the others are moved to its docids by the skips.
+    // If a list is ahead, the leading list is moved to its docid.
+    //
+    private static void intersect(List<PostingCursor> cursors, TopPostings top) {
+        PostingCursor[] lists = cursors.toArray(new PostingCursor[cursors.size()]);
+        Arrays.sort(lists, new Comparator<PostingCursor>() {
+            @Override
+            public int compare(PostingCursor a, PostingCursor b) {
+                return Integer.compare(a.size(), b.size());
+            }
+        });
+
+        int target = 0;
+        while (lists[0].advance(target)) {
+            int docId = lists[0].docId();
+            float score = lists[0].score();
+            boolean match = true;
+            for (int i = 1; i < lists.length; ++i) {
+                if (!lists[i].advance(docId)) {
+                    return;
+                }
+                if (lists[i].docId() != docId) {
+                    target = lists[i].docId();
+                    match = false;
+                    break;
+                }
+                score += lists[i].score();
+            }
+            if (match) {
+                top.offer(docId, score);
+                target = docId + 1;
+            }
+        }
+    }
+
+    // The lists are merged by docid, the scores of the equal docids are added
+    private static void unite(List<PostingCursor> cursors, TopPostings top) {
+        PostingCursor[] lists = cursors.toArray(new PostingCursor[cursors.size()]);
+        int active = 0;
+        for (PostingCursor list : lists) {
+            if (list.next()) {
+                lists[active++] = list;
+            }
+        }
+        while (active > 0) {
+            int docId = Integer.MAX_VALUE;
+            for (int i = 0; i < active; ++i) {
+                docId = Math.min(docId, lists[i].docId());
+            }
+            float score = 0.0F;
+            for (int i = 0; i < active; ) {
+                if (lists[i].docId() == docId) {
+                    score += lists[i].score();
+                    if (!lists[i].next()) {
+                        lists[i] = lists[--active];
+                        continue;
+                    }
+                }
+                ++i;
+            }
+            top.offer(docId, score);
+        }
+    }
+
+    /**
+     * Parts of the index in the directory and the dead pages of the segment
+    */
+    private static class Segment {
+        private final List<Part> mParts = new ArrayList<Part>();
+        // Pages changed or deleted by the later segments or null
+        private BitSet mDead;
+
+        Segment(File directory) throws IOException {
+            File[] files = directory.listFiles();
+            if (files == null) {
+                // The segment of the deleted pages only
+                return;
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(PostingsOutputFormat.DICTIONARY_EXTENSION)) {
+                    String base = name.substring(0, name.length() - PostingsOutputFormat.DICTIONARY_EXTENSION.length());
+                    mParts.add(new Part(file, new File(directory, base + PostingsOutputFormat.POSTINGS_EXTENSION)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Files of one reducer: the dictionary and the posting lists
+    */
+    private static class Part {
+        private final TermDictionary mDictionary;
+        private final ByteBuffer mPostings;
+
+        Part(File dictionary, File postings) throws IOException {
+            ByteBuffer buffer = map(dictionary);
+            mPostings = map(postings);
+            checkHeader(buffer, PostingsOutputFormat.DICTIONARY_MAGIC, dictionary);
+            checkHeader(mPostings, PostingsOutputFormat.POSTINGS_MAGIC, postings);
+            mDictionary = new TermDictionary(buffer);
+        }
+
+        int size() {
+            return mDictionary.size();
+        }
+
+        // Offset of the posting list of the term in mPostings or -1
+        long find(byte[] term, int termLength) {
+            return mDictionary.find(term, termLength);
+        }
+    }
+
+    /**
+     * Cursor over the postings of a term:
+     *     while (cursor.next()) { cursor.docId(); cursor.score(); }
+     * or cursor.advance(docid) to move to the first docid >= the given one
+    */
+    public abstract static class PostingCursor {
+
+        // Number of the postings (an estimate for the order of the intersection)
+        public abstract int size();
+
+        public abstract boolean next();
+
+        /**
+         * Moves to the first posting with docid >= target (if the current one is less),
+         * false if there is no such posting
+        */
+        public abstract boolean advance(int target);
+
+        public abstract int docId();
+
+        public abstract float score();
+    }
+
+    /**
+     * Cursor over the posting list in the mapped file
+    */
+    private static class ListCursor extends PostingCursor {
+        private static final int[] NO_SKIPS = new int[0];
+
+        private final ByteBuffer mBuffer;
+        private final int mSize;
+        private final long mDocumentFrequency;
+        private final float mMaxScore;
+        // The scores are tf after the deltas of the docids, not quantized
+        private final boolean mTermFrequencies;
+        // Skip k: the posting (k + 1) * SKIP_INTERVAL, docid of the posting before it
+        // and the position of its delta in mBuffer
+        private final int[] mSkipDocIds;
+        private final int[] mSkipPositions;
+        private final int mScoresStart;
+        // Current posting: its index, docid and the position of the next delta
+        private int mIndex = -1;
+        private int mDocId = 0;
+        private int mPos;
+        private int mTf;
+        // The postings of the pages are skipped or null
+        private final BitSet mDead;
+        // Multiplier of the score
+        private float mWeight = 1.0F;
+
+        ListCursor(ByteBuffer buffer, int offset, BitSet dead) {
+            mBuffer = buffer;
+            mDead = dead;
+            int pos = offset;
+            mSize = (int) readVLong(buffer, pos);
+            pos += WritableUtils.decodeVIntSize(buffer.get(pos));
+            mDocumentFrequency = readVLong(buffer, pos);
+            pos += WritableUtils.decodeVIntSize(buffer.get(pos));
+            mMaxScore = buffer.getFloat(pos);
+            pos += 4;
+            mTermFrequencies = buffer.get(pos++) != 0;
+
+            int skips = (int) readVLong(buffer, pos);
+            pos += WritableUtils.decodeVIntSize(buffer.get(pos));
+            mSkipDocIds = skips > 0 ? new int[skips] : NO_SKIPS;
+            mSkipPositions = skips > 0 ? new int[skips] : NO_SKIPS;
+            for (int k = 0; k < skips; ++k) {
+                mSkipDocIds[k] = (k > 0 ? mSkipDocIds[k - 1] : 0) + (int) readVLong(buffer, pos);
+                pos += WritableUtils.decodeVIntSize(buffer.get(pos));
+                mSkipPositions[k] = (k > 0 ? mSkipPositions[k - 1] : 0) + (int) readVLong(buffer, pos);
+                pos += WritableUtils.decodeVIntSize(buffer.get(pos));
+            }
+            int docIdsLength = (int) readVLong(buffer, pos);
+            pos += WritableUtils.decodeVIntSize(buffer.get(pos));
+            for (int k = 0; k < skips; ++k) {
+                mSkipPositions[k] += pos;
+            }
+            mPos = pos;
+            mScoresStart = pos + docIdsLength;
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+
+        public long getDocumentFrequency() {
+            return mDocumentFrequency;
+        }
+
+        @Override
+        public boolean next() {
+            do {
+                if (mIndex + 1 >= mSize) {
+                    mIndex = mSize;
+                    return false;
+                }
+                ++mIndex;
+                mDocId += (int) readVLong(mBuffer, mPos);
+                mPos += WritableUtils.decodeVIntSize(mBuffer.get(mPos));
+                if (mTermFrequencies) {
+                    mTf = (int) readVLong(mBuffer, mPos);
+                    mPos += WritableUtils.decodeVIntSize(mBuffer.get(mPos));
+                }
+            } while (mDead != null && mDead.get(mDocId));
+            return true;
+        }
+
+        @Override
+        public boolean advance(int target) {
+            if (mIndex >= mSize) {
+                return false;
+            }
+            if (mIndex >= 0 && mDocId >= target) {
+                return true;
+            }
+            // The last skip with the docid before the target
+            int low = 0;
+            int high = mSkipDocIds.length - 1;
+            int skip = -1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (mSkipDocIds[middle] < target) {
+                    skip = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            if (skip >= 0 && (skip + 1) * PostingList.SKIP_INTERVAL - 1 > mIndex) {
+                mIndex = (skip + 1) * PostingList.SKIP_INTERVAL - 1;
+                mDocId = mSkipDocIds[skip];
+                mPos = mSkipPositions[skip];
+            }
+            while (next()) {
+                if (mDocId >= target) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int docId() {
+            return mDocId;
+        }
+
+        // The quantized score of the current posting or its tf
+        @Override
+        public float score() {
+            if (mTermFrequencies) {
+                return mWeight * mTf;
+            }
+            return mWeight * PostingList.dequantize(mBuffer.get(mScoresStart + mIndex) & 0xFF, mMaxScore);
+        }
+    }
+
+    /**
+     * Postings of the term in several segments, a page is live in one of them
+    */
+    private static class MergedCursor extends PostingCursor {
+        private final ListCursor[] mCursors;
+        private final int mSize;
+        // Not exhausted cursors are mCursors[0..mActive-1], -1 before the first next()
+        private int mActive = -1;
+        private ListCursor mCurrent;
+
+        MergedCursor(ListCursor[] cursors) {
+            mCursors = cursors;
+            int size = 0;
+            for (ListCursor cursor : cursors) {
+                size += cursor.size();
+            }
+            mSize = size;
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+
+        @Override
+        public boolean next() {
+            if (mActive < 0) {
+                return advance(0);
+            }
+            if (mCurrent == null || !mCurrent.next()) {
+                remove(mCurrent);
+            }
+            return selectCurrent();
+        }
+
+        @Override
+        public boolean advance(int target) {
+            if (mActive < 0) {
+                mActive = mCursors.length;
+            } else if (mCurrent != null && mCurrent.docId() >= target) {
+                return true;
+            }
+            for (int i = 0; i < mActive; ) {
+                if (!mCursors[i].advance(target)) {
+                    mCursors[i] = mCursors[--mActive];
+                    continue;
+                }
+                ++i;
+            }
+            return selectCurrent();
+        }
+
+        @Override
+        public int docId() {
+            return mCurrent.docId();
+        }
+
+        @Override
+        public float score() {
+            return mCurrent.score();
+        }
+
+        private void remove(ListCursor cursor) {
+            for (int i = 0; i < mActive; ++i) {
+                if (mCursors[i] == cursor) {
+                    mCursors[i] = mCursors[--mActive];
+                    return;
+                }
+            }
+        }
+
+        // The cursor with the least docid
+        private boolean selectCurrent() {
+            mCurrent = null;
+            for (int i = 0; i < mActive; ++i) {
+                if (mCurrent == null || mCursors[i].docId() < mCurrent.docId()) {
+                    mCurrent = mCursors[i];
+                }
+            }
+            return mCurrent != null;
+        }
+    }
+
+    // Ids of the changed and deleted pages of the segment (changes-* of IncrementalIndex)
+    private static void readTombstones(File pages, BitSet tombstones) throws IOException {
+        File[] files = pages.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.getName().startsWith("changes-")) {
+                continue;
+            }
+            BufferedReader reader =
+                new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    if (!fields[1].equals("new")) {
+                        tombstones.set(Integer.parseInt(fields[0]));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    // Number of the documents of the summary (of the corpus or of the segment),
+    // the other words of the summary are added to the set
+    private static long readSummary(File summary, Set<String> words) throws IOException {
+        long documents = -1;
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(new FileInputStream(summary), Charsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields[0].equals(DOCUMENTS_KEY)) {
+                    documents = Long.parseLong(fields[1]);
+                } else if (!fields[0].isEmpty()) {
+                    words.add(fields[0]);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (documents < 0) {
+            throw new IOException("No " + DOCUMENTS_KEY + " in " + summary);
+        }
+        return documents;
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            if (in.length() > Integer.MAX_VALUE) {
+                throw new IOException("The file is larger than 2GB: " + file);
+            }
+            // The mapping stays valid after the file is closed
+            return in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void checkHeader(ByteBuffer buffer, int magic, File file) throws IOException {
+        if (buffer.limit() < 5 || buffer.getInt(0) != magic
+                || buffer.get(4) != PostingsOutputFormat.VERSION) {
+            throw new IOException("Not an index file of the version "
+                                  + PostingsOutputFormat.VERSION + ": " + file);
+        }
+    }
+
+    static long readVLong(ByteBuffer buffer, int pos) {
+        return TermDictionary.readVLong(buffer, pos);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int k = 10;
+        boolean conjunctive = true;
+        StringBuilder query = new StringBuilder();
+        String directory = null;
+        String prefix = null;
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("-k") && i + 1 < args.length) {
+                k = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-prefix") && i + 1 < args.length) {
+                prefix = args[++i];
+            } else if (args[i].equals("-or")) {
+                conjunctive = false;
+            } else if (directory == null) {
+                directory = args[i];
+            } else {
+                query.append(args[i]).append(' ');
+            }
+        }
+        if (directory == null || (query.length() == 0 && prefix == null)) {
+            System.err.println("Usage: queryindex <index dir> [-k <k>] [-or] <word>...");
+            System.err.println("       queryindex <index dir> [-k <k>] -prefix <prefix>");
+            System.exit(2);
+        }
+
+        QueryIndex index = new QueryIndex(new File(directory));
+        if (prefix != null) {
+            for (String term : index.terms(prefix, k)) {
+                System.out.println(term);
+            }
+            return;
+        }
+        if (index.getStopWords().isEmpty()) {
+            System.err.println("No " + CORPUS_SUMMARY + " in " + directory
+                               + ", the stop words of the query are not dropped");
+        }
+        TopPostings top = index.search(query.toString(), k, conjunctive);
+        for (int i = 0; i < top.size(); ++i) {
+            System.out.println(top.getDocId(i) + "\t" + top.getScore(i));
+        }
+    }
+}
@@ -0,0 +1,6 @@
+#!/bin/sh
+
+JARS=`yarn classpath`
+
+javac -classpath $JARS -d classes QueryIndex.java QueryBenchmark.java DictionaryBenchmark.java ../common/*.java
+jar -cvf queryindex.jar -C classes .
@@ -0,0 +1,7 @@
+#!/bin/sh
+
+# The binary index of InvertedIndex -D invertedindex.output.format=binary
+# and the corpus summary with the stop words
+mkdir -p ./index
+hdfs dfs -get ./inverted_index/output/part* ./index/
+hdfs dfs -get ./inverted_index/output_stats/_corpus_summary ./index/
@@ -0,0 +1,3 @@
+#!/bin/sh
+
+java -cp ./queryindex.jar:`yarn classpath` shad.homework3.task2.QueryBenchmark ./benchmark 50000 20000
@@ -0,0 +1,3 @@
+#!/bin/sh
+
+java -cp ./queryindex.jar:`yarn classpath` shad.homework3.task2.DictionaryBenchmark ./benchmark 1000000 200000
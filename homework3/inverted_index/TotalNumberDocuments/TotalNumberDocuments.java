@@ -4,92 +4,63 @@
  * TotalNumberDocuments.java: Calculation of the number of documents (articles)
  *                                                                             
  * Input Data:  *.xml file (dump of wikiedia)                                  
- * Output Data: <number of documents>
+ * Output Data: part-m-*                  number of documents of the split
+ *              _total_number_documents   <number of documents>
+ *
+ * The job is map-only: every mapper counts the pages of its split (the text of
+ * the pages is not read), the total is the sum of the counters of the mappers.
 */
 
 package shad.homework3.task2;
 
-import java.io.DataInput;
-import java.io.DataOutput;
 import java.io.IOException;
-import java.util.StringTokenizer;
-import java.util.TreeSet;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import com.google.common.base.Charsets;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
-import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.KeyValueTextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.mapreduce.Mapper;
-import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.util.GenericOptionsParser;
 
 
 
 public class TotalNumberDocuments {
+
+    // Side file of the output directory with the total
+    public static final String TOTAL_FILE = "_total_number_documents";
+
+    public static enum Counters {
+        DOCUMENTS
+    }
+
     /**
-     * Input:  key - docid; value - content
-     * Output: key - const(1); value - const(1)
+     * Input:  key - docid; value - page (without the text)
+     * Output: key - const; value - number of documents of the split (in cleanup)
     */
     public static class MapperSumDocuments
-            extends Mapper<Text, Text, IntWritable, IntWritable> {
+            extends Mapper<IntWritable, WikiPage, Text, LongWritable> {
     
-        private IntWritable ONE_COST = new IntWritable(1);
+        private long mNumberDocuments = 0;
         
-        public void map(Text key, Text value, Context context) 
+        public void map(IntWritable key, WikiPage value, Context context) 
                 throws IOException, InterruptedException {
 
-                context.write(ONE_COST, ONE_COST);
+                ++mNumberDocuments;
         }         
-    }
-  
-    /**
-     * Input:  kkey - const(1); value - list(1)
-     * Output: key - const(1); value - local number of documents
-    */
-    public static class CombinerSumDocuments
-            extends Reducer<IntWritable, IntWritable, IntWritable, IntWritable> {
-
-        private IntWritable mLocalNumberDocuments = new IntWritable();
-        private IntWritable ONE_CONST = new IntWritable(1);
-
-        public void reduce(IntWritable key, Iterable<IntWritable> values, Context context)
-                throws IOException, InterruptedException {
-
-            int sum = 0;
-            for (IntWritable val : values) {
-                sum += val.get();                
-            }
-            mLocalNumberDocuments.set(sum);
-
-            context.write(ONE_CONST, mLocalNumberDocuments);
-        }
-    }
-    
-    /**
-     * Input:  kkey - const(1); value - list(local number of documents)
-     * Output: <total naumber of documents>
-    */
-    public static class ReducerSumDocuments
-            extends Reducer<IntWritable, IntWritable, Text, IntWritable> {
-
-        private IntWritable mTotalNumberDocuments = new IntWritable();
 
-        public void reduce(IntWritable key, Iterable<IntWritable> values, Context context)
-                throws IOException, InterruptedException {
-
-            int sum = 0;
-            for (IntWritable val : values) {
-                sum += val.get();                
-            }
-            mTotalNumberDocuments.set(sum);
-
-            context.write(new Text("Total number of documents: "), mTotalNumberDocuments);
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            context.getCounter(Counters.DOCUMENTS).increment(mNumberDocuments);
+            context.write(new Text("Number of documents of the split: "),
+                          new LongWritable(mNumberDocuments));
         }
     }
 
@@ -105,10 +76,8 @@ public class TotalNumberDocuments {
             System.exit(2);
         }
 
-        conf.setBoolean("exact.match.only", true);
-        conf.set("io.serializations",
-             "org.apache.hadoop.io.serializer.JavaSerialization,"
-             + "org.apache.hadoop.io.serializer.WritableSerialization");
+        // The pages are counted only
+        conf.setBoolean(WikiPageInputFormat.SKIP_TEXT, true);
 
 
         Job job = new Job(conf, "totalnumberdocuments");
@@ -116,20 +85,35 @@ public class TotalNumberDocuments {
         // Set class 
         job.setJarByClass(TotalNumberDocuments.class);
 
+        // No shuffle: the mappers write their numbers
         job.setMapperClass(MapperSumDocuments.class);
-        job.setCombinerClass(CombinerSumDocuments.class);
-        job.setReducerClass(ReducerSumDocuments.class);
+        job.setNumReduceTasks(0);
 
         // Input/Output
-        job.setInputFormatClass(XmlInputFormat.class);
+        job.setInputFormatClass(WikiPageInputFormat.class);
         job.setOutputFormatClass(TextOutputFormat.class);
         
-        job.setMapOutputKeyClass(IntWritable.class);
-        job.setMapOutputValueClass(IntWritable.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(LongWritable.class);
 
+        Path output = new Path(otherArgs[1]);
         FileInputFormat.addInputPath(job, new Path(otherArgs[0]));
-        FileOutputFormat.setOutputPath(job, new Path(otherArgs[1]));
+        FileOutputFormat.setOutputPath(job, output);
         
-        System.exit(job.waitForCompletion(true) ? 0 : 1);
+        if (!job.waitForCompletion(true)) {
+            System.exit(1);
+        }
+
+        long total = job.getCounters().findCounter(Counters.DOCUMENTS).getValue();
+        System.out.println("Total number of documents: " + total);
+        FileSystem fs = output.getFileSystem(conf);
+        Writer writer = new OutputStreamWriter(fs.create(new Path(output, TOTAL_FILE), true),
+                                               Charsets.UTF_8);
+        try {
+            writer.write("Total number of documents: \t" + total + "\n");
+        } finally {
+            writer.close();
+        }
+        System.exit(0);
     }
 }
@@ -2,5 +2,5 @@
 
 JARS=`yarn classpath`
 
-javac -classpath $JARS -d classes TotalNumberDocuments.java XmlInputFormat.java
+javac -classpath $JARS -d classes TotalNumberDocuments.java ../common/*.java
 jar -cvf totalnumberdocuments.jar -C classes .
\ No newline at end of file
@@ -1,4 +1,4 @@
 #!/bin/sh
 
-hdfs dfs -get ./inverted_index/output/part* ./total_num_docs_result.txt
+hdfs dfs -get ./inverted_index/output/_total_number_documents ./total_num_docs_result.txt
 hdfs dfs -rm -r ./inverted_index/output/
\ No newline at end of file
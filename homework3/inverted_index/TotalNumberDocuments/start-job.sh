@@ -1,6 +1,6 @@
 #!/bin/sh
 
-hadoop jar ./totalnumberdocuments.jar shad.homework3.task2.TotalNumberDocuments -D mapreduce.job.reduces=1 ./inverted_index/debug.xml ./inverted_index/output
+hadoop jar ./totalnumberdocuments.jar shad.homework3.task2.TotalNumberDocuments ./inverted_index/debug.xml ./inverted_index/output
 
 
 
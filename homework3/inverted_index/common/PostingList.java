@@ -0,0 +1,225 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * PostingList.java: Postings of a term in the binary format of the index
+ *
+ * Serialized form:
+ *     vint   number of postings n
+ *     vlong  document frequency of the term (all the postings, not only the kept ones)
+ *     float  maximal score
+ *     byte   1 if the scores are tf, 0 otherwise
+ *     vint   number of skips s = (n - 1) / SKIP_INTERVAL
+ *     s x (vint, vint)  skip pointers to the postings SKIP_INTERVAL, 2 * SKIP_INTERVAL, ...:
+ *                       docid of the posting before it and offset of its delta
+ *                       in the docids (both as the deltas from the previous skip)
+ *     vint   length of the docids in bytes
+ *     n x vint   docids by ascending, the first one as is, the others as the deltas,
+ *                with tf every delta is followed by vint tf of the posting
+ *     n x byte   scores quantized to 0..255 of the maximal score (not written with tf)
+ * The skips let the reader of the index move forward without decoding every docid.
+ * The scores read by readFields() are quantized, the relative error is at most 1/510
+ * of the maximal score of the list. The integer scores of the lists with tf
+ * (setTermFrequencies(true), the segments of IncrementalIndex) are kept exactly.
+*/
+
+package shad.homework3.task2;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+public class PostingList implements Writable {
+
+    public static final int SCORE_LEVELS = 255;
+    // Number of the postings between the skip pointers
+    public static final int SKIP_INTERVAL = 16;
+
+    private int mSize = 0;
+    private long mDocumentFrequency = 0;
+    private int[] mDocIds = new int[16];
+    private float[] mScores = new float[16];
+    private boolean mSorted = true;
+    // The scores are tf: written as vint, not quantized
+    private boolean mTermFrequencies = false;
+    // Encoded docids of write()
+    private DataOutputBuffer mDocIdBytes = new DataOutputBuffer();
+    private int[] mSkipDocIds = new int[0];
+    private int[] mSkipOffsets = new int[0];
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getDocumentFrequency() {
+        return mDocumentFrequency;
+    }
+
+    public void setDocumentFrequency(long documentFrequency) {
+        mDocumentFrequency = documentFrequency;
+    }
+
+    public boolean hasTermFrequencies() {
+        return mTermFrequencies;
+    }
+
+    // The scores added after that have to be integers
+    public void setTermFrequencies(boolean termFrequencies) {
+        mTermFrequencies = termFrequencies;
+    }
+
+    public void clear() {
+        mSize = 0;
+        mDocumentFrequency = 0;
+        mSorted = true;
+    }
+
+    // The postings can be added in any order, the docids have to be distinct
+    public void add(int docId, float score) {
+        if (mSize == mDocIds.length) {
+            mDocIds = Arrays.copyOf(mDocIds, 2 * mSize);
+            mScores = Arrays.copyOf(mScores, 2 * mSize);
+        }
+        if (mSize > 0 && mDocIds[mSize - 1] > docId) {
+            mSorted = false;
+        }
+        mDocIds[mSize] = docId;
+        mScores[mSize] = score;
+        ++mSize;
+    }
+
+    /**
+     * The postings are sorted by docid by write() and readFields()
+    */
+    public int getDocId(int i) {
+        return mDocIds[i];
+    }
+
+    public float getScore(int i) {
+        return mScores[i];
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        sort();
+        float maxScore = 0.0F;
+        for (int i = 0; i < mSize; ++i) {
+            maxScore = Math.max(maxScore, mScores[i]);
+        }
+
+        // The docids are encoded first to know the offsets of the skips
+        int skips = mSize > 0 ? (mSize - 1) / SKIP_INTERVAL : 0;
+        if (skips > mSkipDocIds.length) {
+            mSkipDocIds = new int[skips];
+            mSkipOffsets = new int[skips];
+        }
+        mDocIdBytes.reset();
+        int previous = 0;
+        for (int i = 0; i < mSize; ++i) {
+            if (i > 0 && i % SKIP_INTERVAL == 0) {
+                mSkipDocIds[i / SKIP_INTERVAL - 1] = previous;
+                mSkipOffsets[i / SKIP_INTERVAL - 1] = mDocIdBytes.getLength();
+            }
+            WritableUtils.writeVInt(mDocIdBytes, mDocIds[i] - previous);
+            if (mTermFrequencies) {
+                WritableUtils.writeVInt(mDocIdBytes, Math.round(mScores[i]));
+            }
+            previous = mDocIds[i];
+        }
+
+        WritableUtils.writeVInt(out, mSize);
+        WritableUtils.writeVLong(out, mDocumentFrequency);
+        out.writeFloat(maxScore);
+        out.writeByte(mTermFrequencies ? 1 : 0);
+        WritableUtils.writeVInt(out, skips);
+        for (int k = 0; k < skips; ++k) {
+            WritableUtils.writeVInt(out, mSkipDocIds[k] - (k > 0 ? mSkipDocIds[k - 1] : 0));
+            WritableUtils.writeVInt(out, mSkipOffsets[k] - (k > 0 ? mSkipOffsets[k - 1] : 0));
+        }
+        WritableUtils.writeVInt(out, mDocIdBytes.getLength());
+        out.write(mDocIdBytes.getData(), 0, mDocIdBytes.getLength());
+        for (int i = 0; i < mSize && !mTermFrequencies; ++i) {
+            out.writeByte(quantize(mScores[i], maxScore));
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        clear();
+        int size = WritableUtils.readVInt(in);
+        mDocumentFrequency = WritableUtils.readVLong(in);
+        float maxScore = in.readFloat();
+        mTermFrequencies = in.readByte() != 0;
+        // The skips are not needed for reading of the whole list
+        int skips = WritableUtils.readVInt(in);
+        for (int k = 0; k < 2 * skips; ++k) {
+            WritableUtils.readVInt(in);
+        }
+        WritableUtils.readVInt(in);
+        if (size > mDocIds.length) {
+            mDocIds = new int[size];
+            mScores = new float[size];
+        }
+        int docId = 0;
+        for (int i = 0; i < size; ++i) {
+            docId += WritableUtils.readVInt(in);
+            mDocIds[i] = docId;
+            if (mTermFrequencies) {
+                mScores[i] = WritableUtils.readVInt(in);
+            }
+        }
+        for (int i = 0; i < size && !mTermFrequencies; ++i) {
+            mScores[i] = dequantize(in.readUnsignedByte(), maxScore);
+        }
+        mSize = size;
+    }
+
+    public static int quantize(float score, float maxScore) {
+        if (maxScore <= 0.0F) {
+            return 0;
+        }
+        return Math.round(score / maxScore * SCORE_LEVELS);
+    }
+
+    public static float dequantize(int level, float maxScore) {
+        return level * maxScore / SCORE_LEVELS;
+    }
+
+    // Insertion sort for the short lists, the arrays of the pairs otherwise
+    private void sort() {
+        if (mSorted) {
+            return;
+        }
+        if (mSize <= 32) {
+            for (int i = 1; i < mSize; ++i) {
+                int docId = mDocIds[i];
+                float score = mScores[i];
+                int j = i - 1;
+                while (j >= 0 && mDocIds[j] > docId) {
+                    mDocIds[j + 1] = mDocIds[j];
+                    mScores[j + 1] = mScores[j];
+                    --j;
+                }
+                mDocIds[j + 1] = docId;
+                mScores[j + 1] = score;
+            }
+        } else {
+            // docid in the high bits, the index of the score in the low bits
+            long[] order = new long[mSize];
+            for (int i = 0; i < mSize; ++i) {
+                order[i] = ((long) mDocIds[i] << 32) | i;
+            }
+            Arrays.sort(order);
+            float[] scores = new float[mScores.length];
+            for (int i = 0; i < mSize; ++i) {
+                mDocIds[i] = (int) (order[i] >> 32);
+                scores[i] = mScores[(int) order[i]];
+            }
+            mScores = scores;
+        }
+        mSorted = true;
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * PostingsInputFormat.java: Reads the binary output of the inverted index back
+ *                           (part-r-*.dict and part-r-*.post of PostingsOutputFormat)
+ *
+ * Output: key - term; value - postings of the term
+ *
+ * The input paths are the directories of the index, every .dict file with
+ * its .post file is one split. The terms come in the order of the file.
+*/
+
+package shad.homework3.task2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import com.google.common.io.Closeables;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+public class PostingsInputFormat extends FileInputFormat<Text, PostingList> {
+
+    // The dictionaries only, the posting files are opened by the reader
+    @Override
+    protected List<FileStatus> listStatus(JobContext job) throws IOException {
+        List<FileStatus> dictionaries = new ArrayList<FileStatus>();
+        for (FileStatus status : super.listStatus(job)) {
+            if (status.getPath().getName().endsWith(PostingsOutputFormat.DICTIONARY_EXTENSION)) {
+                dictionaries.add(status);
+            }
+        }
+        return dictionaries;
+    }
+
+    @Override
+    protected boolean isSplitable(JobContext context, Path file) {
+        return false;
+    }
+
+    @Override
+    public RecordReader<Text, PostingList> createRecordReader(InputSplit split,
+                                                              TaskAttemptContext context) {
+        return new PostingsRecordReader();
+    }
+
+    public static class PostingsRecordReader extends RecordReader<Text, PostingList> {
+
+        private TermDictionary.Cursor mDictionary;
+        private FSDataInputStream mPostings;
+        private int mSize;
+        private int mIndex = 0;
+        private final Text mTerm = new Text();
+        private final PostingList mPostingList = new PostingList();
+
+        @Override
+        public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
+            Path dictionary = ((FileSplit) genericSplit).getPath();
+            String name = dictionary.getName();
+            Path postings = new Path(dictionary.getParent(),
+                name.substring(0, name.length() - PostingsOutputFormat.DICTIONARY_EXTENSION.length())
+                + PostingsOutputFormat.POSTINGS_EXTENSION);
+
+            // The dictionary is small beside the postings, it is read to the memory
+            FileSystem fs = dictionary.getFileSystem(context.getConfiguration());
+            long length = fs.getFileStatus(dictionary).getLen();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("The dictionary is larger than 2GB: " + dictionary);
+            }
+            byte[] bytes = new byte[(int) length];
+            FSDataInputStream in = fs.open(dictionary);
+            try {
+                in.readFully(bytes);
+            } finally {
+                in.close();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (length < 5 || buffer.getInt(0) != PostingsOutputFormat.DICTIONARY_MAGIC
+                    || buffer.get(4) != PostingsOutputFormat.VERSION) {
+                throw new IOException("Not an index file of the version "
+                                      + PostingsOutputFormat.VERSION + ": " + dictionary);
+            }
+            TermDictionary terms = new TermDictionary(buffer);
+            mSize = terms.size();
+            mDictionary = terms.iterator();
+
+            mPostings = fs.open(postings);
+            checkHeader(mPostings, PostingsOutputFormat.POSTINGS_MAGIC, postings);
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException, InterruptedException {
+            if (!mDictionary.next()) {
+                return false;
+            }
+            ++mIndex;
+            mTerm.set(mDictionary.getTerm(), 0, mDictionary.getLength());
+            long offset = mDictionary.getOffset();
+            // The lists are written in the order of the terms (unless the writer was not
+            // sorted, -D postings.output.sorted=false), so the seek is rare
+            if (mPostings.getPos() != offset) {
+                mPostings.seek(offset);
+            }
+            mPostingList.readFields(mPostings);
+            return true;
+        }
+
+        @Override
+        public Text getCurrentKey() throws IOException, InterruptedException {
+            return mTerm;
+        }
+
+        @Override
+        public PostingList getCurrentValue() throws IOException, InterruptedException {
+            return mPostingList;
+        }
+
+        @Override
+        public float getProgress() throws IOException {
+            return mSize == 0 ? 1.0F : mIndex / (float) mSize;
+        }
+
+        @Override
+        public void close() throws IOException {
+            Closeables.close(mPostings, true);
+        }
+
+        private static void checkHeader(FSDataInputStream in, int magic, Path file) throws IOException {
+            if (in.readInt() != magic || in.readByte() != PostingsOutputFormat.VERSION) {
+                throw new IOException("Not an index file of the version "
+                                      + PostingsOutputFormat.VERSION + ": " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * PostingsOutputFormat.java: Binary output of the inverted index
+ *
+ * Every reducer writes two files (SSTable-like, the terms come sorted):
+ *     part-r-*.post  header, then the posting lists (PostingList) one after another
+ *     part-r-*.dict  term -> offset of its list in .post (TermDictionary, front coded)
+ * The files are not compressed, so the lists can be read from the mapped files.
+ * With -D postings.output.sorted=false the terms can come in any order: the
+ * entries of the dictionary are kept in the memory and sorted on close.
+*/
+
+package shad.homework3.task2;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+public class PostingsOutputFormat extends FileOutputFormat<Text, PostingList> {
+
+    public static final String POSTINGS_EXTENSION = ".post";
+    public static final String DICTIONARY_EXTENSION = ".dict";
+
+    // "POST" and "DICT"
+    public static final int POSTINGS_MAGIC = 0x504F5354;
+    public static final int DICTIONARY_MAGIC = 0x44494354;
+    // 2 - the posting lists with the skips, 3 - the front coded dictionary,
+    // 4 - the lists with tf
+    public static final int VERSION = 4;
+
+    // The terms come sorted to the writer (-D postings.output.sorted=true)
+    public static final String SORTED = "postings.output.sorted";
+
+    @Override
+    public RecordWriter<Text, PostingList> getRecordWriter(TaskAttemptContext context)
+            throws IOException, InterruptedException {
+        Path file = getDefaultWorkFile(context, "");
+        FileSystem fs = file.getFileSystem(context.getConfiguration());
+        FSDataOutputStream postings = fs.create(file.suffix(POSTINGS_EXTENSION), false);
+        FSDataOutputStream dictionary = fs.create(file.suffix(DICTIONARY_EXTENSION), false);
+        return new PostingsRecordWriter(postings, dictionary,
+                                        context.getConfiguration().getBoolean(SORTED, true));
+    }
+
+    public static class PostingsRecordWriter extends RecordWriter<Text, PostingList> {
+
+        private final FSDataOutputStream mPostings;
+        private final TermDictionary.Writer mDictionary;
+        private final boolean mSorted;
+
+        // The entries until close() if the terms are not sorted: the bytes of
+        // the terms one after another, their starts and the offsets of the lists
+        private byte[] mTerms;
+        private int mTermsLength = 0;
+        private int[] mStarts;
+        private long[] mOffsets;
+        private int mSize = 0;
+
+        public PostingsRecordWriter(FSDataOutputStream postings, FSDataOutputStream dictionary)
+                throws IOException {
+            this(postings, dictionary, true);
+        }
+
+        public PostingsRecordWriter(FSDataOutputStream postings, FSDataOutputStream dictionary,
+                                    boolean sorted) throws IOException {
+            mPostings = postings;
+            mPostings.writeInt(POSTINGS_MAGIC);
+            mPostings.writeByte(VERSION);
+            mDictionary = new TermDictionary.Writer(dictionary, DICTIONARY_MAGIC, VERSION);
+            mSorted = sorted;
+            if (!mSorted) {
+                mTerms = new byte[64 * 1024];
+                mStarts = new int[1025];
+                mOffsets = new long[1024];
+            }
+        }
+
+        // The terms come sorted (as the keys of the reducer) unless the writer is not sorted
+        @Override
+        public void write(Text term, PostingList postings) throws IOException {
+            long offset = mPostings.getPos();
+            postings.write(mPostings);
+            if (mSorted) {
+                mDictionary.add(term.getBytes(), term.getLength(), offset);
+                return;
+            }
+
+            if (mSize == mOffsets.length) {
+                mOffsets = Arrays.copyOf(mOffsets, 2 * mSize);
+                mStarts = Arrays.copyOf(mStarts, 2 * mSize + 1);
+            }
+            if (mTermsLength + term.getLength() > mTerms.length) {
+                mTerms = Arrays.copyOf(mTerms, Math.max(2 * mTerms.length, mTermsLength + term.getLength()));
+            }
+            System.arraycopy(term.getBytes(), 0, mTerms, mTermsLength, term.getLength());
+            mStarts[mSize] = mTermsLength;
+            mOffsets[mSize] = offset;
+            mTermsLength += term.getLength();
+            mStarts[++mSize] = mTermsLength;
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) throws IOException {
+            try {
+                mPostings.close();
+                if (!mSorted) {
+                    writeSorted();
+                }
+            } finally {
+                mDictionary.close();
+            }
+        }
+
+        private void writeSorted() throws IOException {
+            Integer[] order = new Integer[mSize];
+            for (int i = 0; i < mSize; ++i) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return WritableComparator.compareBytes(mTerms, mStarts[a], mStarts[a + 1] - mStarts[a],
+                                                           mTerms, mStarts[b], mStarts[b + 1] - mStarts[b]);
+                }
+            });
+            byte[] term = new byte[64];
+            for (int i : order) {
+                int length = mStarts[i + 1] - mStarts[i];
+                if (length > term.length) {
+                    term = new byte[Math.max(length, 2 * term.length)];
+                }
+                System.arraycopy(mTerms, mStarts[i], term, 0, length);
+                mDictionary.add(term, length, mOffsets[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * TermCounter.java: Term frequencies of a document by one pass over its UTF-8 bytes
+ *
+ * The tokens are of WikiTokenizer (the markup and the punctuation are removed,
+ * the letters are folded to lower case), the tokens shorter than 4 characters
+ * are dropped. The stop words are checked after the folding.
+ *
+ * The terms are kept as the bytes in the table of the counter, so counting
+ * makes no objects per token:
+ *     counter.count(text);
+ *     for (int i = 0; i < counter.size(); ++i) { counter.getTerm(i, term); counter.getFrequency(i); }
+*/
+
+package shad.homework3.task2;
+
+import java.util.Collections;
+import java.util.Set;
+import org.apache.hadoop.io.Text;
+
+public class TermCounter {
+
+    public static final int MIN_TERM_LENGTH = 4;
+
+    private final WikiTokenizer mTokenizer = new WikiTokenizer();
+    private final TermTable mStopWords = new TermTable();
+    // Terms of the current document
+    private final TermTable mTerms = new TermTable();
+    private int[] mFrequencies = new int[1024];
+
+    public TermCounter() {
+        this(Collections.<String>emptySet());
+    }
+
+    /**
+     * The stop words are normalized as the terms
+    */
+    public TermCounter(Set<String> stopWords) {
+        WikiTokenizer tokenizer = new WikiTokenizer();
+        Text word = new Text();
+        for (String stopWord : stopWords) {
+            word.set(stopWord);
+            tokenizer.reset(word);
+            while (tokenizer.next()) {
+                mStopWords.add(tokenizer.getBytes(), tokenizer.getLength());
+            }
+        }
+    }
+
+    /**
+     * Counts the terms of the document (UTF-8), the previous counts are cleared
+    */
+    public void count(Text content) {
+        count(content.getBytes(), 0, content.getLength());
+    }
+
+    public void count(String content) {
+        Text text = new Text(content);
+        count(text.getBytes(), 0, text.getLength());
+    }
+
+    public void count(byte[] data, int start, int length) {
+        mTerms.clear();
+        mTokenizer.reset(data, start, length);
+        while (mTokenizer.next()) {
+            if (mTokenizer.getCharacters() < MIN_TERM_LENGTH) {
+                continue;
+            }
+            byte[] token = mTokenizer.getBytes();
+            int tokenLength = mTokenizer.getLength();
+            if (mStopWords.find(token, tokenLength) >= 0) {
+                continue;
+            }
+            int size = mTerms.size();
+            int i = mTerms.add(token, tokenLength);
+            if (i == size) {
+                if (i == mFrequencies.length) {
+                    int[] frequencies = new int[2 * i];
+                    System.arraycopy(mFrequencies, 0, frequencies, 0, i);
+                    mFrequencies = frequencies;
+                }
+                mFrequencies[i] = 1;
+            } else {
+                ++mFrequencies[i];
+            }
+        }
+    }
+
+    // Number of the distinct terms of the document
+    public int size() {
+        return mTerms.size();
+    }
+
+    // The term i (in the order of the first occurrence), valid until the next count()
+    public void getTerm(int i, Text term) {
+        term.set(mTerms.mBytes, mTerms.mOffsets[i], mTerms.mLengths[i]);
+    }
+
+    public int getFrequency(int i) {
+        return mFrequencies[i];
+    }
+
+    /**
+     * Set of the byte strings: open addressing over the indexes of the strings,
+     * the bytes are stored one after another
+    */
+    private static class TermTable {
+        private byte[] mBytes = new byte[16 * 1024];
+        private int mBytesLength = 0;
+        private int[] mOffsets = new int[1024];
+        private int[] mLengths = new int[1024];
+        private int[] mHashes = new int[1024];
+        private int mSize = 0;
+        // Index + 1 of the string or 0, the capacity is a power of two
+        private int[] mSlots = new int[2048];
+
+        int size() {
+            return mSize;
+        }
+
+        void clear() {
+            // Only the used slots are cleared
+            int mask = mSlots.length - 1;
+            for (int i = 0; i < mSize; ++i) {
+                int slot = mHashes[i] & mask;
+                while (mSlots[slot] != 0) {
+                    mSlots[slot] = 0;
+                    slot = (slot + 1) & mask;
+                }
+            }
+            mSize = 0;
+            mBytesLength = 0;
+        }
+
+        // Index of the string or -1
+        int find(byte[] bytes, int length) {
+            int hash = hash(bytes, length);
+            int mask = mSlots.length - 1;
+            for (int slot = hash & mask; mSlots[slot] != 0; slot = (slot + 1) & mask) {
+                int i = mSlots[slot] - 1;
+                if (mHashes[i] == hash && equals(i, bytes, length)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // Index of the string, it is added if it is new
+        int add(byte[] bytes, int length) {
+            int hash = hash(bytes, length);
+            int mask = mSlots.length - 1;
+            int slot = hash & mask;
+            for (; mSlots[slot] != 0; slot = (slot + 1) & mask) {
+                int i = mSlots[slot] - 1;
+                if (mHashes[i] == hash && equals(i, bytes, length)) {
+                    return i;
+                }
+            }
+
+            if (mSize == mOffsets.length) {
+                mOffsets = grow(mOffsets);
+                mLengths = grow(mLengths);
+                mHashes = grow(mHashes);
+            }
+            if (mBytesLength + length > mBytes.length) {
+                byte[] data = new byte[Math.max(2 * mBytes.length, mBytesLength + length)];
+                System.arraycopy(mBytes, 0, data, 0, mBytesLength);
+                mBytes = data;
+            }
+            System.arraycopy(bytes, 0, mBytes, mBytesLength, length);
+            mOffsets[mSize] = mBytesLength;
+            mLengths[mSize] = length;
+            mHashes[mSize] = hash;
+            mBytesLength += length;
+            mSlots[slot] = ++mSize;
+
+            // The load factor is at most 1/2
+            if (2 * mSize > mSlots.length) {
+                rehash(2 * mSlots.length);
+            }
+            return mSize - 1;
+        }
+
+        private void rehash(int capacity) {
+            mSlots = new int[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < mSize; ++i) {
+                int slot = mHashes[i] & mask;
+                while (mSlots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                mSlots[slot] = i + 1;
+            }
+        }
+
+        private boolean equals(int i, byte[] bytes, int length) {
+            if (mLengths[i] != length) {
+                return false;
+            }
+            int offset = mOffsets[i];
+            for (int j = 0; j < length; ++j) {
+                if (mBytes[offset + j] != bytes[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // FNV-1a, the high bits are mixed to the low ones for the mask
+        private static int hash(byte[] bytes, int length) {
+            int hash = 0x811C9DC5;
+            for (int i = 0; i < length; ++i) {
+                hash = (hash ^ bytes[i]) * 0x01000193;
+            }
+            return hash ^ (hash >>> 16);
+        }
+
+        private static int[] grow(int[] array) {
+            int[] grown = new int[2 * array.length];
+            System.arraycopy(array, 0, grown, 0, array.length);
+            return grown;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * TermDictionary.java: Front coded dictionary term -> offset of its posting list
+ *
+ * The file (part-r-*.dict of PostingsOutputFormat):
+ *     int, byte  magic and version
+ *     blocks of BLOCK_SIZE terms by ascending (as Text, by the bytes):
+ *         the first term     vint length, bytes; vlong offset
+ *         the next terms     vint length of the prefix shared with the previous term,
+ *                            vint length of the suffix, bytes of the suffix;
+ *                            vlong offset - offset of the previous term
+ *     n x int                positions of the blocks
+ *     long, int, int         position of the blocks index, number of the terms, BLOCK_SIZE
+ *
+ * The reader works over the mapped file: the first terms of the blocks are
+ * searched by binary search, then one block is decoded. Nothing is loaded
+ * but the trailer, the terms are found by the exact term or by the prefix:
+ *     TermDictionary.Cursor cursor = dictionary.seek(prefix, length);
+ *     while (cursor.next() && cursor.startsWith(prefix, length)) { cursor.getTerm(), cursor.getOffset() }
+*/
+
+package shad.homework3.task2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import com.google.common.base.Charsets;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+public class TermDictionary {
+
+    public static final int BLOCK_SIZE = 16;
+    // Header: magic and version
+    private static final int HEADER_LENGTH = 5;
+    private static final int TRAILER_LENGTH = 16;
+
+    private final ByteBuffer mBuffer;
+    private final int mIndexStart;
+    private final int mSize;
+    private final int mBlockSize;
+    private final int mBlocks;
+
+    /**
+     * The dictionary over the buffer with the whole file (the header is checked by the caller)
+    */
+    public TermDictionary(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        int limit = buffer.limit();
+        if (limit < HEADER_LENGTH + TRAILER_LENGTH) {
+            throw new IOException("The dictionary is truncated");
+        }
+        long indexStart = buffer.getLong(limit - TRAILER_LENGTH);
+        mSize = buffer.getInt(limit - TRAILER_LENGTH + 8);
+        mBlockSize = buffer.getInt(limit - TRAILER_LENGTH + 12);
+        if (mBlockSize <= 0 || mSize < 0 || indexStart < HEADER_LENGTH || indexStart > limit - TRAILER_LENGTH) {
+            throw new IOException("The dictionary is malformed");
+        }
+        mIndexStart = (int) indexStart;
+        mBlocks = (mSize + mBlockSize - 1) / mBlockSize;
+        if (mIndexStart + 4L * mBlocks != limit - TRAILER_LENGTH) {
+            throw new IOException("The dictionary is malformed");
+        }
+    }
+
+    // Number of the terms
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Offset of the posting list of the term or -1
+    */
+    public long find(byte[] term, int length) {
+        Cursor cursor = seek(term, length);
+        if (cursor.next() && cursor.mLength == length
+                && cursor.compareTo(term, length) == 0) {
+            return cursor.mOffset;
+        }
+        return -1;
+    }
+
+    /**
+     * Cursor before the first term >= the given one (next() moves to it)
+    */
+    public Cursor seek(byte[] term, int length) {
+        // The last block with the first term <= term
+        int low = 0;
+        int high = mBlocks - 1;
+        int block = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (compareFirst(middle, term, length) <= 0) {
+                block = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        Cursor cursor = new Cursor(block);
+        while (cursor.decode()) {
+            if (cursor.compareTo(term, length) >= 0) {
+                // next() returns this term
+                cursor.mPending = true;
+                break;
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Cursor before the first term of the dictionary
+    */
+    public Cursor iterator() {
+        return new Cursor(0);
+    }
+
+    private int blockStart(int block) {
+        return mBuffer.getInt(mIndexStart + 4 * block);
+    }
+
+    // The first term of the block (stored as is) compared with the term
+    private int compareFirst(int block, byte[] term, int length) {
+        int pos = blockStart(block);
+        int termLength = (int) readVLong(mBuffer, pos);
+        pos += WritableUtils.decodeVIntSize(mBuffer.get(pos));
+        int n = Math.min(termLength, length);
+        for (int i = 0; i < n; ++i) {
+            int a = mBuffer.get(pos + i) & 0xFF;
+            int b = term[i] & 0xFF;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return termLength - length;
+    }
+
+    /**
+     * Decodes the terms one after another from a block
+    */
+    public class Cursor {
+        // Index of the next term and the position of its entry
+        private int mNext;
+        private int mPos;
+        private byte[] mTerm = new byte[64];
+        private int mLength = 0;
+        private long mOffset = 0;
+        // The current term is decoded by seek() but not returned by next() yet
+        private boolean mPending = false;
+
+        Cursor(int block) {
+            mNext = block * mBlockSize;
+            mPos = mNext < mSize ? blockStart(block) : mIndexStart;
+        }
+
+        /**
+         * Moves to the next term, false after the last one
+        */
+        public boolean next() {
+            if (mPending) {
+                mPending = false;
+                return true;
+            }
+            return decode();
+        }
+
+        private boolean decode() {
+            if (mNext >= mSize) {
+                return false;
+            }
+            int pos = mPos;
+            if (mNext % mBlockSize == 0) {
+                int length = (int) readVLong(mBuffer, pos);
+                pos += WritableUtils.decodeVIntSize(mBuffer.get(pos));
+                ensureCapacity(length);
+                copy(pos, 0, length);
+                mLength = length;
+                pos += length;
+                mOffset = readVLong(mBuffer, pos);
+            } else {
+                int shared = (int) readVLong(mBuffer, pos);
+                pos += WritableUtils.decodeVIntSize(mBuffer.get(pos));
+                int suffix = (int) readVLong(mBuffer, pos);
+                pos += WritableUtils.decodeVIntSize(mBuffer.get(pos));
+                ensureCapacity(shared + suffix);
+                copy(pos, shared, suffix);
+                mLength = shared + suffix;
+                pos += suffix;
+                mOffset += readVLong(mBuffer, pos);
+            }
+            pos += WritableUtils.decodeVIntSize(mBuffer.get(pos));
+            mPos = pos;
+            ++mNext;
+            return true;
+        }
+
+        // Bytes of the current term are getTerm()[0..getLength()-1]
+        public byte[] getTerm() {
+            return mTerm;
+        }
+
+        public int getLength() {
+            return mLength;
+        }
+
+        public long getOffset() {
+            return mOffset;
+        }
+
+        public boolean startsWith(byte[] prefix, int length) {
+            if (mLength < length) {
+                return false;
+            }
+            for (int i = 0; i < length; ++i) {
+                if (mTerm[i] != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public String getTermString() {
+            return new String(mTerm, 0, mLength, Charsets.UTF_8);
+        }
+
+        int compareTo(byte[] term, int length) {
+            return WritableComparator.compareBytes(mTerm, 0, mLength, term, 0, length);
+        }
+
+        private void ensureCapacity(int length) {
+            if (length > mTerm.length) {
+                mTerm = Arrays.copyOf(mTerm, Math.max(length, 2 * mTerm.length));
+            }
+        }
+
+        private void copy(int pos, int to, int length) {
+            for (int i = 0; i < length; ++i) {
+                mTerm[to + i] = mBuffer.get(pos + i);
+            }
+        }
+    }
+
+    /**
+     * Writes the dictionary, the terms have to come by ascending
+    */
+    public static class Writer {
+        private final FSDataOutputStream mOut;
+        private int[] mBlocks = new int[1024];
+        private int mSize = 0;
+        private byte[] mPrevious = new byte[64];
+        private int mPreviousLength = 0;
+        private long mPreviousOffset = 0;
+
+        public Writer(FSDataOutputStream out, int magic, int version) throws IOException {
+            mOut = out;
+            mOut.writeInt(magic);
+            mOut.writeByte(version);
+        }
+
+        public void add(byte[] term, int length, long offset) throws IOException {
+            if (mSize > 0 && WritableComparator.compareBytes(mPrevious, 0, mPreviousLength,
+                                                             term, 0, length) >= 0) {
+                throw new IOException("The terms of the dictionary are not ascending");
+            }
+            if (mSize % BLOCK_SIZE == 0) {
+                if (mOut.getPos() > Integer.MAX_VALUE) {
+                    throw new IOException("The dictionary is larger than 2GB");
+                }
+                int block = mSize / BLOCK_SIZE;
+                if (block == mBlocks.length) {
+                    mBlocks = Arrays.copyOf(mBlocks, 2 * block);
+                }
+                mBlocks[block] = (int) mOut.getPos();
+                WritableUtils.writeVInt(mOut, length);
+                mOut.write(term, 0, length);
+                WritableUtils.writeVLong(mOut, offset);
+            } else {
+                int shared = 0;
+                int n = Math.min(length, mPreviousLength);
+                while (shared < n && mPrevious[shared] == term[shared]) {
+                    ++shared;
+                }
+                WritableUtils.writeVInt(mOut, shared);
+                WritableUtils.writeVInt(mOut, length - shared);
+                mOut.write(term, shared, length - shared);
+                WritableUtils.writeVLong(mOut, offset - mPreviousOffset);
+            }
+
+            if (length > mPrevious.length) {
+                mPrevious = Arrays.copyOf(mPrevious, Math.max(length, 2 * mPrevious.length));
+            }
+            System.arraycopy(term, 0, mPrevious, 0, length);
+            mPreviousLength = length;
+            mPreviousOffset = offset;
+            ++mSize;
+        }
+
+        // Writes the index of the blocks and closes the stream
+        public void close() throws IOException {
+            try {
+                long indexStart = mOut.getPos();
+                int blocks = (mSize + BLOCK_SIZE - 1) / BLOCK_SIZE;
+                for (int i = 0; i < blocks; ++i) {
+                    mOut.writeInt(mBlocks[i]);
+                }
+                mOut.writeLong(indexStart);
+                mOut.writeInt(mSize);
+                mOut.writeInt(BLOCK_SIZE);
+            } finally {
+                mOut.close();
+            }
+        }
+    }
+
+    // WritableUtils.readVLong() from the buffer at pos
+    public static long readVLong(ByteBuffer buffer, int pos) {
+        byte first = buffer.get(pos);
+        int size = WritableUtils.decodeVIntSize(first);
+        if (size == 1) {
+            return first;
+        }
+        long value = 0;
+        for (int i = 1; i < size; ++i) {
+            value = (value << 8) | (buffer.get(pos + i) & 0xFF);
+        }
+        return WritableUtils.isNegativeVInt(first) ? ~value : value;
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * TopPostings.java: K postings with the largest scores
+ *
+ * Bounded min-heap of pairs (docid, score), the root is the worst posting
+ * of the top. With equal scores the document with the smaller docid is better,
+ * so the result does not depend on the order of input.
+ * The reducers of InvertedIndex score the postings of a term by tf: the IDF is
+ * the same for all of them, so it is also the top by TF-IDF. QueryIndex scores
+ * the documents by the sum of TF-IDF of the words of the query.
+*/
+
+package shad.homework3.task2;
+
+public class TopPostings {
+
+    private final int mK;
+    private final int[] mDocIds;
+    private final float[] mScores;
+    private int mSize = 0;
+
+    public TopPostings(int k) {
+        mK = k;
+        mDocIds = new int[k];
+        mScores = new float[k];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void offer(int docId, float score) {
+        if (mK == 0) {
+            return;
+        }
+        if (mSize < mK) {
+            mDocIds[mSize] = docId;
+            mScores[mSize] = score;
+            siftUp(mSize++);
+        } else if (less(mDocIds[0], mScores[0], docId, score)) {
+            mDocIds[0] = docId;
+            mScores[0] = score;
+            siftDown(0, mSize);
+        }
+    }
+
+    /**
+     * Sorts the postings from the best to the worst: getDocId(0) is the first in the top
+     * After sort() only getDocId(), getScore() and clear() may be called
+    */
+    public void sort() {
+        // Heap sort: the worst is moved to the end
+        for (int n = mSize - 1; n > 0; --n) {
+            swap(0, n);
+            siftDown(0, n);
+        }
+    }
+
+    public int getDocId(int i) {
+        return mDocIds[i];
+    }
+
+    public float getScore(int i) {
+        return mScores[i];
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    // (docId1, score1) is worse than (docId2, score2)
+    private static boolean less(int docId1, float score1, int docId2, float score2) {
+        if (score1 != score2) {
+            return score1 < score2;
+        }
+        return docId1 > docId2;
+    }
+
+    private boolean less(int i, int j) {
+        return less(mDocIds[i], mScores[i], mDocIds[j], mScores[j]);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!less(i, parent)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int size) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && less(left, smallest)) {
+                smallest = left;
+            }
+            if (right < size && less(right, smallest)) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int docId = mDocIds[i];
+        float score = mScores[i];
+        mDocIds[i] = mDocIds[j];
+        mScores[i] = mScores[j];
+        mDocIds[j] = docId;
+        mScores[j] = score;
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * WikiPage.java: Page of the Wikipedia XML dump
+ *
+ * The title and the text are stored as in the dump (XML escaped),
+ * the text of the last revision only
+*/
+
+package shad.homework3.task2;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+public class WikiPage implements Writable {
+
+    private int mId;
+    private int mNamespace;
+    private final Text mTitle = new Text();
+    private final Text mText = new Text();
+
+    public int getId() {
+        return mId;
+    }
+
+    public void setId(int id) {
+        mId = id;
+    }
+
+    public int getNamespace() {
+        return mNamespace;
+    }
+
+    public void setNamespace(int namespace) {
+        mNamespace = namespace;
+    }
+
+    public Text getTitle() {
+        return mTitle;
+    }
+
+    public Text getText() {
+        return mText;
+    }
+
+    public void clear() {
+        mId = 0;
+        mNamespace = 0;
+        mTitle.clear();
+        mText.clear();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, mId);
+        WritableUtils.writeVInt(out, mNamespace);
+        mTitle.write(out);
+        mText.write(out);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        mId = WritableUtils.readVInt(in);
+        mNamespace = WritableUtils.readVInt(in);
+        mTitle.readFields(in);
+        mText.readFields(in);
+    }
+
+    @Override
+    public String toString() {
+        return mId + "\t" + mNamespace + "\t" + mTitle;
+    }
+}
@@ -0,0 +1,489 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+ //
+ // This file is modifed version of XmlInputFormat from Apache Mahout
+ // Mikhail Kurnosov, 2014
+ //
+
+package shad.homework3.task2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.SplitCompressionInputStream;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+/**
+ * Reads the pages (<page>...</page>) of the Wikipedia XML dump
+ * Output: key - page id; value - page
+ *
+ * The page belongs to the split where its <page> tag starts. The page id is
+ * the first <id> of the page (the ids of the revision and the contributor
+ * follow it). The text is of the last <revision> of the page (the dumps with
+ * the full history keep the revisions from the oldest to the newest). The
+ * pages of the namespaces not listed in wiki.namespaces are skipped by the reader.
+ * With -D wiki.page.skip.text=true the text is not copied, only the beginning
+ * of the page with the title, ns and id is kept.
+ *
+ * The dump can be compressed: .bz2 files (also the multistream ones) are split
+ * by the bzip2 blocks, the files of the other codecs are read by one mapper.
+ */
+public class WikiPageInputFormat extends FileInputFormat<IntWritable, WikiPage> {
+
+    // Size of the block read from the file (-D xmlinput.buffer.size=262144)
+    public static final String BUFFER_SIZE = "xmlinput.buffer.size";
+    // Namespaces of the pages, "all" - all the pages as the original jobs read them,
+    // 0 - the articles only (-D wiki.namespaces=all)
+    public static final String NAMESPACES = "wiki.namespaces";
+    // Only the id, namespace and title of the pages are read, the text is empty
+    // (-D wiki.page.skip.text=false)
+    public static final String SKIP_TEXT = "wiki.page.skip.text";
+
+    // The bytes of the page stored with SKIP_TEXT: <title>, <ns> and <id> come first
+    private static final int PAGE_HEADER_LIMIT = 4096;
+
+    public static enum Counters {
+        PAGES,
+        SKIPPED_PAGES,
+        MALFORMED_PAGES,
+        BYTES_READ
+    }
+
+    @Override
+    protected boolean isSplitable(JobContext context, Path file) {
+        CompressionCodec codec =
+            new CompressionCodecFactory(context.getConfiguration()).getCodec(file);
+        return codec == null || codec instanceof SplittableCompressionCodec;
+    }
+
+    @Override
+    public RecordReader<IntWritable, WikiPage> createRecordReader(InputSplit split,
+                                                                  TaskAttemptContext context) {
+        // The split is opened in initialize()
+        return new WikiPageRecordReader();
+    }
+
+    public static class WikiPageRecordReader extends RecordReader<IntWritable, WikiPage> {
+
+        private static final byte[] PAGE_START = bytes("<page>");
+        private static final byte[] PAGE_END = bytes("</page>");
+        private static final byte[] TITLE_START = bytes("<title>");
+        private static final byte[] TITLE_END = bytes("</title>");
+        private static final byte[] NS_START = bytes("<ns>");
+        private static final byte[] NS_END = bytes("</ns>");
+        private static final byte[] ID_START = bytes("<id>");
+        private static final byte[] ID_END = bytes("</id>");
+        private static final byte[] REVISION_START = bytes("<revision>");
+        // <text xml:space="preserve">...</text> or <text ... /> for the empty text
+        private static final byte[] TEXT_START = bytes("<text");
+        private static final byte[] TEXT_END = bytes("</text>");
+
+        private long start;
+        private long end;
+        private FSDataInputStream fileIn;
+        // fileIn or the decompressed stream
+        private InputStream in;
+        private Decompressor decompressor;
+        // The stream of the splittable codec (bzip2) or null
+        private SplitCompressionInputStream splitIn;
+        // Compressed input: the bytes buffer[blockStart..] come from the bzip2 block
+        // at the position blockPos of the file, the bytes before it from the block
+        // at previousBlockPos (a read never crosses the blocks)
+        private long blockPos;
+        private long previousBlockPos;
+        private int blockStart;
+        // Block of the file: buffer[0] is at the position bufferStart of the file
+        // (of the decompressed data for compressed input),
+        // bytes bufferPos..bufferLength-1 are not read yet
+        private byte[] buffer;
+        private int bufferPos;
+        private int bufferLength;
+        private long bufferStart;
+        // null - all the namespaces
+        private int[] namespaces;
+        // Bytes between <page> and </page>
+        private final Text page = new Text();
+        // SKIP_TEXT: the page is stored up to PAGE_HEADER_LIMIT bytes
+        private boolean skipText;
+        private int pageLimit;
+        // Key and value are reused by all the records
+        private final IntWritable currentKey = new IntWritable();
+        private final WikiPage currentValue = new WikiPage();
+        private org.apache.hadoop.mapreduce.Counter pagesCounter;
+        private org.apache.hadoop.mapreduce.Counter skippedPagesCounter;
+        private org.apache.hadoop.mapreduce.Counter malformedPagesCounter;
+        private org.apache.hadoop.mapreduce.Counter bytesReadCounter;
+
+        @Override
+        public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
+            FileSplit split = (FileSplit) genericSplit;
+            Configuration conf = context.getConfiguration();
+
+            // The reader can be initialized again with another split
+            close();
+
+            // Open the file and seek to the start of the current split
+            start = split.getStart();
+            end = start + split.getLength();
+            Path file = split.getPath();
+            FileSystem fs = file.getFileSystem(conf);
+            fileIn = fs.open(file);
+
+            CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
+            if (codec == null) {
+                fileIn.seek(start);
+                in = fileIn;
+            } else {
+                decompressor = CodecPool.getDecompressor(codec);
+                if (codec instanceof SplittableCompressionCodec) {
+                    // The split starts at the first bzip2 block after its start and
+                    // takes all the blocks which start before its end
+                    splitIn = ((SplittableCompressionCodec) codec).createInputStream(
+                        fileIn, decompressor, start, end, SplittableCompressionCodec.READ_MODE.BYBLOCK);
+                    start = splitIn.getAdjustedStart();
+                    end = splitIn.getAdjustedEnd();
+                    in = splitIn;
+                } else {
+                    // isSplitable() gives the whole file to the split
+                    in = codec.createInputStream(fileIn, decompressor);
+                }
+            }
+            blockPos = start;
+            previousBlockPos = start;
+            blockStart = 0;
+
+            int bufferSize = Math.max(conf.getInt(BUFFER_SIZE, 1 << 18), 1024);
+            if (buffer == null || buffer.length != bufferSize) {
+                buffer = new byte[bufferSize];
+            }
+            bufferPos = 0;
+            bufferLength = 0;
+            bufferStart = start;
+
+            String[] names = conf.getTrimmedStrings(NAMESPACES, "all");
+            namespaces = null;
+            if (names.length > 0 && !Arrays.asList(names).contains("all")) {
+                namespaces = new int[names.length];
+                for (int i = 0; i < names.length; ++i) {
+                    namespaces[i] = Integer.parseInt(names[i]);
+                }
+            }
+
+            skipText = conf.getBoolean(SKIP_TEXT, false);
+            pageLimit = skipText ? PAGE_HEADER_LIMIT : Integer.MAX_VALUE;
+
+            pagesCounter = context.getCounter(Counters.PAGES);
+            skippedPagesCounter = context.getCounter(Counters.SKIPPED_PAGES);
+            malformedPagesCounter = context.getCounter(Counters.MALFORMED_PAGES);
+            bytesReadCounter = context.getCounter(Counters.BYTES_READ);
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException, InterruptedException {
+            // The part of the page before the start of the split is skipped
+            while (readUntilMatch(PAGE_START, null)) {
+                if (!readUntilMatch(PAGE_END, page)) {
+                    return false;
+                }
+                if (parsePage(page.getBytes(), page.getLength())) {
+                    currentKey.set(currentValue.getId());
+                    pagesCounter.increment(1);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public IntWritable getCurrentKey() throws IOException, InterruptedException {
+            return currentKey;
+        }
+
+        @Override
+        public WikiPage getCurrentValue() throws IOException, InterruptedException {
+            return currentValue;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                // Closes fileIn too
+                Closeables.close(in, true);
+                in = null;
+                fileIn = null;
+                splitIn = null;
+            }
+            if (decompressor != null) {
+                CodecPool.returnDecompressor(decompressor);
+                decompressor = null;
+            }
+        }
+
+        @Override
+        public float getProgress() throws IOException {
+            if (start >= end) {
+                return 1.0F;
+            }
+            // Compressed input: the position in the compressed file
+            long pos = in == fileIn ? bufferStart + bufferPos : fileIn.getPos();
+            return Math.min(1.0F, (pos - start) / (float) (end - start));
+        }
+
+        //
+        // Fills currentValue by the bytes data[0..length-1] between <page> and </page>
+        // Returns false if the page is skipped
+        //
+        private boolean parsePage(byte[] data, int length) {
+            WikiPage value = currentValue;
+            value.clear();
+
+            // <title>, <ns> and <id> of the page are before <revision>
+            int from = 0;
+            int ns = 0;
+            int nsStart = indexOf(data, NS_START, 0, length);
+            if (nsStart >= 0) {
+                nsStart += NS_START.length;
+                int nsEnd = indexOf(data, NS_END, nsStart, length);
+                if (nsEnd < 0) {
+                    nsEnd = nsStart;
+                }
+                ns = parseInt(data, nsStart, nsEnd);
+                from = nsEnd;
+            }
+            if (ns < 0) {
+                malformedPagesCounter.increment(1);
+                return false;
+            }
+            if (!acceptNamespace(ns)) {
+                skippedPagesCounter.increment(1);
+                return false;
+            }
+
+            int idStart = indexOf(data, ID_START, from, length);
+            int idEnd = idStart < 0 ? -1 : indexOf(data, ID_END, idStart + ID_START.length, length);
+            int id = idEnd < 0 ? -1 : parseInt(data, idStart + ID_START.length, idEnd);
+            if (id < 0) {
+                malformedPagesCounter.increment(1);
+                return false;
+            }
+            value.setId(id);
+            value.setNamespace(ns);
+
+            int titleStart = indexOf(data, TITLE_START, 0, length);
+            if (titleStart >= 0) {
+                titleStart += TITLE_START.length;
+                int titleEnd = indexOf(data, TITLE_END, titleStart, length);
+                if (titleEnd >= 0) {
+                    value.getTitle().set(data, titleStart, titleEnd - titleStart);
+                }
+            }
+
+            // The last revision: '<' is escaped in the text, so the tag is not in a text
+            int revisionStart = skipText ? -1 : lastIndexOf(data, REVISION_START, idEnd, length);
+            int textStart = skipText ? -1
+                : indexOf(data, TEXT_START, revisionStart >= 0 ? revisionStart : idEnd, length);
+            if (textStart >= 0) {
+                // End of the start tag, the attributes are skipped
+                int tagEnd = textStart + TEXT_START.length;
+                while (tagEnd < length && data[tagEnd] != '>') {
+                    ++tagEnd;
+                }
+                if (tagEnd < length && data[tagEnd - 1] != '/') {
+                    int textEnd = indexOf(data, TEXT_END, tagEnd + 1, length);
+                    if (textEnd >= 0) {
+                        value.getText().set(data, tagEnd + 1, textEnd - tagEnd - 1);
+                    }
+                }
+            }
+            return true;
+        }
+
+        private boolean acceptNamespace(int ns) {
+            if (namespaces == null) {
+                return true;
+            }
+            for (int n : namespaces) {
+                if (n == ns) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Non-negative number in data[from..to-1], the spaces are skipped; -1 if it is not a number
+        private static int parseInt(byte[] data, int from, int to) {
+            while (from < to && data[from] <= ' ') {
+                ++from;
+            }
+            while (to > from && data[to - 1] <= ' ') {
+                --to;
+            }
+            if (from == to || to - from > 10) {
+                return -1;
+            }
+            long n = 0;
+            for (int i = from; i < to; ++i) {
+                if (data[i] < '0' || data[i] > '9') {
+                    return -1;
+                }
+                n = 10 * n + (data[i] - '0');
+            }
+            return n > Integer.MAX_VALUE ? -1 : (int) n;
+        }
+
+        // The tag at buffer[i] starts after the end of the split
+        private boolean pastEnd(int i) {
+            if (splitIn != null) {
+                // The split takes the bzip2 block if it starts before the end
+                return (i < blockStart ? previousBlockPos : blockPos) > end;
+            }
+            if (in != fileIn) {
+                // Compressed file which is not split
+                return false;
+            }
+            return bufferStart + i >= end;
+        }
+
+        //
+        // Searches the tag from the current position and moves the position after it.
+        //
+        // record == null: the tag has to start before the end of the split
+        // record != null: the bytes before the tag are stored to the record
+        //                 (at most pageLimit of them)
+        //
+        // The block is scanned for the first byte of the tag ('<' is escaped inside
+        // the text of the articles, so the candidates are rare), only the last
+        // match.length - 1 bytes are kept when the next block is read.
+        //
+        private boolean readUntilMatch(byte[] match, Text record) throws IOException {
+            int recordStart = bufferPos;
+            if (record != null) {
+                record.clear();
+            }
+            while (true) {
+                int found = indexOf(buffer, match, bufferPos, bufferLength);
+                if (found >= 0) {
+                    if (record == null && pastEnd(found)) {
+                        bufferPos = found;
+                        return false;
+                    }
+                    if (record != null) {
+                        append(record, recordStart, found);
+                    }
+                    bufferPos = found + match.length;
+                    return true;
+                }
+
+                // Tail of the block which can hold the beginning of the tag
+                int keep = Math.min(match.length - 1, bufferLength - bufferPos);
+                int consumed = bufferLength - keep;
+                if (record == null && pastEnd(consumed)) {
+                    bufferPos = consumed;
+                    return false;
+                }
+                if (record != null) {
+                    append(record, recordStart, consumed);
+                    recordStart = 0;
+                }
+                System.arraycopy(buffer, consumed, buffer, 0, keep);
+                bufferStart += consumed;
+                bufferLength = keep;
+                bufferPos = 0;
+                blockStart = Math.max(blockStart - consumed, 0);
+
+                int n = in.read(buffer, keep, buffer.length - keep);
+                // End of file
+                if (n <= 0) {
+                    bufferPos = bufferLength;
+                    return false;
+                }
+                if (splitIn != null && splitIn.getPos() != blockPos) {
+                    // The read bytes are the beginning of the next bzip2 block
+                    previousBlockPos = blockPos;
+                    blockPos = splitIn.getPos();
+                    blockStart = keep;
+                }
+                bufferLength += n;
+                bytesReadCounter.increment(n);
+            }
+        }
+
+        private void append(Text record, int from, int to) {
+            int n = Math.min(to - from, pageLimit - record.getLength());
+            if (n > 0) {
+                record.append(buffer, from, n);
+            }
+        }
+
+        // Position of the tag in data[from..to-1] or -1
+        private static int indexOf(byte[] data, byte[] match, int from, int to) {
+            byte first = match[0];
+            int last = to - match.length;
+            for (int i = from; i <= last; ++i) {
+                if (data[i] != first) {
+                    continue;
+                }
+                int j = 1;
+                while (j < match.length && data[i + j] == match[j]) {
+                    ++j;
+                }
+                if (j == match.length) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // The last match in data[from..to-1] or -1
+        private static int lastIndexOf(byte[] data, byte[] match, int from, int to) {
+            for (int i = to - match.length; i >= from; --i) {
+                int j = 0;
+                while (j < match.length && data[i + j] == match[j]) {
+                    ++j;
+                }
+                if (j == match.length) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static byte[] bytes(String tag) {
+            return tag.getBytes(Charsets.UTF_8);
+        }
+    }
+}
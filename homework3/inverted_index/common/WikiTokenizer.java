@@ -0,0 +1,247 @@
+/**
+ * Samoylov Denis: pdc_shad 2015
+ *
+ * WikiTokenizer.java: Tokens of the wiki text by one pass over its UTF-8 bytes
+ *
+ * A token is a run of the letters and digits, everything else is a delimiter:
+ * the ASCII punctuation (the wiki markup [[ ]], {{ }}, '', ==, | too), the
+ * punctuation of Latin-1 and the general punctuation (« », dashes, nbsp).
+ * The XML entities of the dump (&quot;, &amp;nbsp;) and the HTML tags
+ * (&lt;ref name=...&gt;, &lt;br /&gt;) are skipped as a whole.
+ *
+ * The Latin, Latin-1 and Russian letters are folded to lower case, Ё and ё to е.
+ * The other characters are kept as they are. The malformed bytes are delimiters.
+ *
+ * The token is written to the buffer of the tokenizer, it is valid until next():
+ *     tokenizer.reset(text);
+ *     while (tokenizer.next()) { tokenizer.getBytes(), tokenizer.getLength() }
+*/
+
+package shad.homework3.task2;
+
+import org.apache.hadoop.io.Text;
+
+public class WikiTokenizer {
+
+    // Maximal length of the HTML tag between &lt; and &gt;
+    private static final int MAX_TAG_LENGTH = 1024;
+    // Maximal length of the name of the entity between & and ;
+    private static final int MAX_ENTITY_LENGTH = 10;
+
+    private static final byte[] LT = {'&', 'l', 't', ';'};
+    private static final byte[] GT = {'&', 'g', 't', ';'};
+    private static final byte[] AMP = {'&', 'a', 'm', 'p', ';'};
+
+    private byte[] mData;
+    private int mPos;
+    private int mEnd;
+
+    private byte[] mToken = new byte[64];
+    private int mLength;
+    // Number of the characters of the token
+    private int mCharacters;
+
+    public void reset(Text text) {
+        reset(text.getBytes(), 0, text.getLength());
+    }
+
+    public void reset(byte[] data, int start, int length) {
+        mData = data;
+        mPos = start;
+        mEnd = start + length;
+        mLength = 0;
+        mCharacters = 0;
+    }
+
+    public byte[] getBytes() {
+        return mToken;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    public int getCharacters() {
+        return mCharacters;
+    }
+
+    /**
+     * Moves to the next token, false at the end of the text
+    */
+    public boolean next() {
+        mLength = 0;
+        mCharacters = 0;
+        byte[] data = mData;
+        while (mPos < mEnd) {
+            int b = data[mPos] & 0xFF;
+
+            if (b < 0x80) {
+                if ((b >= 'a' && b <= 'z') || (b >= '0' && b <= '9')) {
+                    append(b);
+                    ++mPos;
+                } else if (b >= 'A' && b <= 'Z') {
+                    append(b + ('a' - 'A'));
+                    ++mPos;
+                } else {
+                    if (b == '&') {
+                        mPos = skipMarkup(mPos);
+                    } else {
+                        ++mPos;
+                    }
+                    if (mLength > 0) {
+                        return true;
+                    }
+                }
+                continue;
+            }
+
+            // Length of the UTF-8 sequence
+            int n = b >= 0xF8 ? 0 : (b >= 0xF0 ? 4 : (b >= 0xE0 ? 3 : (b >= 0xC0 ? 2 : 0)));
+            if (n == 0 || mPos + n > mEnd || !continuation(mPos + 1, n - 1)) {
+                // Malformed: the byte is a delimiter
+                ++mPos;
+                if (mLength > 0) {
+                    return true;
+                }
+                continue;
+            }
+
+            int b1 = data[mPos + 1] & 0xFF;
+            if (n == 2 && isDelimiter(b, b1)) {
+                mPos += 2;
+                if (mLength > 0) {
+                    return true;
+                }
+                continue;
+            }
+            if (n == 3 && b == 0xE2 && (b1 == 0x80 || b1 == 0x81)) {
+                // General punctuation U+2000..U+207F
+                mPos += 3;
+                if (mLength > 0) {
+                    return true;
+                }
+                continue;
+            }
+
+            if (n == 2) {
+                appendFolded(b, b1);
+            } else {
+                for (int i = 0; i < n; ++i) {
+                    appendByte(data[mPos + i]);
+                }
+                ++mCharacters;
+            }
+            mPos += n;
+        }
+        return mLength > 0;
+    }
+
+    // Two bytes character: Latin-1 punctuation and signs U+0080..U+00BF, U+00D7, U+00F7
+    private static boolean isDelimiter(int b0, int b1) {
+        return b0 == 0xC2 || (b0 == 0xC3 && (b1 == 0x97 || b1 == 0xB7));
+    }
+
+    // Lower case of Latin-1 U+00C0..U+00DE and Cyrillic U+0400..U+042F, Ё and ё -> е
+    private void appendFolded(int b0, int b1) {
+        if (b0 == 0xC3 && b1 >= 0x80 && b1 <= 0x9E) {
+            b1 += 0x20;
+        } else if ((b0 == 0xD0 && b1 == 0x81) || (b0 == 0xD1 && b1 == 0x91)) {
+            // Ё, ё
+            b0 = 0xD0;
+            b1 = 0xB5;
+        } else if (b0 == 0xD0) {
+            if (b1 >= 0x90 && b1 <= 0x9F) {
+                // А..П -> а..п
+                b1 += 0x20;
+            } else if (b1 >= 0xA0 && b1 <= 0xAF) {
+                // Р..Я -> р..я
+                b0 = 0xD1;
+                b1 -= 0x20;
+            } else if (b1 >= 0x80 && b1 <= 0x8F) {
+                // Ѐ..Џ -> ѐ..џ
+                b0 = 0xD1;
+                b1 += 0x10;
+            }
+        }
+        appendByte((byte) b0);
+        appendByte((byte) b1);
+        ++mCharacters;
+    }
+
+    private void append(int c) {
+        appendByte((byte) c);
+        ++mCharacters;
+    }
+
+    private void appendByte(byte b) {
+        if (mLength == mToken.length) {
+            byte[] token = new byte[2 * mLength];
+            System.arraycopy(mToken, 0, token, 0, mLength);
+            mToken = token;
+        }
+        mToken[mLength++] = b;
+    }
+
+    private boolean continuation(int from, int n) {
+        for (int i = from; i < from + n; ++i) {
+            if ((mData[i] & 0xC0) != 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //
+    // Position after the markup at data[pos] == '&':
+    //     &lt;tag ...&gt;  (the tag starts by a letter, '/' or '!')
+    //     &name; &#123; and &amp;name; (escaped twice)
+    // or after '&' if it is not the markup
+    //
+    private int skipMarkup(int pos) {
+        if (startsWith(pos, LT) && pos + LT.length < mEnd) {
+            int c = mData[pos + LT.length] & 0xFF;
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '/' || c == '!') {
+                int limit = Math.min(mEnd, pos + MAX_TAG_LENGTH);
+                for (int i = pos + LT.length; i < limit; ++i) {
+                    if (mData[i] == '&' && startsWith(i, GT)) {
+                        return i + GT.length;
+                    }
+                }
+            }
+            return pos + LT.length;
+        }
+        if (startsWith(pos, AMP)) {
+            int end = entityEnd(pos + AMP.length - 1);
+            return end > 0 ? end : pos + AMP.length;
+        }
+        int end = entityEnd(pos);
+        return end > 0 ? end : pos + 1;
+    }
+
+    // Position after &name; or &#123; at pos or -1
+    private int entityEnd(int pos) {
+        int limit = Math.min(mEnd, pos + 2 + MAX_ENTITY_LENGTH);
+        for (int i = pos + 1; i < limit; ++i) {
+            int c = mData[i] & 0xFF;
+            if (c == ';') {
+                return i > pos + 1 ? i + 1 : -1;
+            }
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '#')) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private boolean startsWith(int pos, byte[] match) {
+        if (pos + match.length > mEnd) {
+            return false;
+        }
+        for (int i = 0; i < match.length; ++i) {
+            if (mData[pos + i] != match[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}